@@ -1,421 +1,815 @@
-package plc.project;
-
-import java.lang.reflect.Type;
-import java.math.BigDecimal;
-import java.math.BigInteger;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
-import java.util.Set;
-
-/**
- * See the specification for information about what the different visit
- * methods should do.
- */
-public final class Analyzer implements Ast.Visitor<Void> {
-    public Scope scope;
-    private Ast.Method method;
-
-    public Analyzer(Scope parent) {
-        scope = new Scope(parent);
-        scope.defineFunction("print", "System.out.println", Arrays.asList(Environment.Type.ANY), Environment.Type.NIL, args -> Environment.NIL);
-    }
-
-    public Scope getScope() {
-        return scope;
-    }
-
-    @Override
-    public Void visit(Ast.Source ast) {
-        try{
-            ast.getFields().forEach(this::visit);
-            ast.getMethods().forEach(this::visit);
-            if (scope.lookupFunction("main", 0).getType().equals(Environment.Type.INTEGER)){
-
-                return null;
-            }
-            else {
-                throw new RuntimeException("Main does not return an Integer return type.");
-            }
-        }
-        catch(Exception e){
-            throw new RuntimeException("Main is not defined in this scope.");
-        }
-
-    }
-
-    @Override
-    public Void visit(Ast.Field ast) {
-        if(ast.getValue().isPresent()){
-            visit(ast.getValue().get());
-            requireAssignable(ast.getValue().get().getType(), Environment.getType(ast.getTypeName()));
-
-        }
-        if (ast.getConstant() && ast.getValue().isEmpty()){
-            throw new RuntimeException("A constant field must have an initial value assigned.");
-
-        }
-        scope.defineVariable(ast.getName(), ast.getName(), Environment.getType(ast.getTypeName()), ast.getConstant(), Environment.NIL);
-        ast.setVariable(scope.lookupVariable(ast.getName()));
-
-       return null;
-    }
-
-    @Override
-    public Void visit(Ast.Method ast) {
-        try {
-            List<Environment.Type> ParamTypes = new ArrayList<>();
-
-            for (int i =0; i<ast.getParameterTypeNames().size(); i++){
-                ParamTypes.add(Environment.getType(ast.getParameterTypeNames().get(i)));
-
-            }
-
-            if(ast.getReturnTypeName().isPresent()){
-                scope.defineFunction(ast.getName(), ast.getName(), ParamTypes, Environment.getType(ast.getReturnTypeName().get()),  args  -> { return Environment.NIL;});
-
-                ast.setFunction(scope.lookupFunction(ast.getName(), ParamTypes.size()));
-            }
-
-            else{
-                scope.defineFunction(ast.getName(), ast.getName(), ParamTypes, Environment.Type.NIL,  args  -> { return Environment.NIL;});
-                ast.setFunction(scope.lookupFunction(ast.getName(), ParamTypes.size()));
-
-            }
-            scope = new Scope(scope);
-
-            for ( int i=0; i<ParamTypes.size(); i++){
-                scope.defineVariable(ast.getParameters().get(i),ast.getParameters().get(i), ParamTypes.get(i), false, Environment.NIL);
-
-
-            }
-            for (int i = 0; i < ast.getStatements().size(); i++) {
-               visit(ast.getStatements().get(i));
-               if (ast.getStatements().get(i) instanceof Ast.Statement.Return){
-                   if(ast.getReturnTypeName().isEmpty()){
-                       throw new RuntimeException("Return type is undefined");
-                   }
-
-
-                   Environment.Type returntype = ((Ast.Statement.Return) ast.getStatements().get(i)).getValue().getType();
-
-                   // if(!(Environment.getType(ast.getReturnTypeName().get()).equals(returntype))){
-                    if(!scope.lookupFunction(ast.getName(), ast.getParameters().size()).getType().equals(returntype)){
-                       throw new RuntimeException("Return types differ.");
-                   }
-               }
-           }
-       } catch (RuntimeException e) {
-           throw new RuntimeException(e);
-       }
-       finally{
-            scope = scope.getParent();
-       }
-
-        return null;
-       }
-
-    @Override
-    public Void visit(Ast.Statement.Expression ast) {
-        if(ast.getExpression() instanceof Ast.Expression.Function) {
-            visit(ast.getExpression());
-            return null;
-        }
-        throw new RuntimeException("The expression is not an instance of a function.");
-    }
-
-    @Override
-
-    public Void visit(Ast.Statement.Declaration ast) {
-
-        try{
-            if (ast.getValue().isPresent()) {
-
-                if (ast.getTypeName().isPresent()) {
-                    requireAssignable(Environment.getType(ast.getTypeName().get()), ast.getValue().get().getType());
-                }
-                visit(ast.getValue().get());
-                scope.defineVariable(ast.getName(), ast.getName(), ast.getValue().get().getType(), false, Environment.NIL);
-                ast.setVariable(scope.lookupVariable(ast.getName()));
-            } else {
-                if (!(ast.getTypeName().isPresent()))
-                    throw new RuntimeException("No type is defined");
-
-
-                scope.defineVariable(ast.getName(), ast.getName(), Environment.getType(ast.getTypeName().get()), false, Environment.NIL);
-                ast.setVariable(scope.lookupVariable(ast.getName()));
-
-            }
-
-
-            return null;
-        } catch (RuntimeException e) {
-            throw new RuntimeException(e);
-        }
-    }
-
-    @Override
-    public Void visit(Ast.Statement.Assignment ast) {
-        try {
-            visit(ast.getReceiver());
-            visit(ast.getValue());
-            if (!(ast.getReceiver() instanceof Ast.Expression.Access)
-                    || !(ast.getReceiver().getType().equals(ast.getValue().getType()))) {
-                throw new RuntimeException("Types mismatch");
-            }
-            if(((Ast.Expression.Access) ast.getReceiver()).getReceiver().isPresent()){
-               Ast.Expression expr =  ((Ast.Expression.Access) ast.getReceiver()).getReceiver().get();
-               if(expr.getType().getField(((Ast.Expression.Access) ast.getReceiver()).getName()).getConstant()){
-                   throw new RuntimeException("The variable is constant.");
-
-               }
-
-
-            }
-            else {
-
-                if (scope.lookupVariable(((Ast.Expression.Access) ast.getReceiver()).getName()).getConstant()) {
-                    throw new RuntimeException("The variable is constant.");
-                }
-           }
-            return null;
-        } catch (RuntimeException e) {
-            throw new RuntimeException(e);
-        }
-
-    }
-
-    @Override
-    public Void visit(Ast.Statement.If ast) {
-
-        try {
-            visit(ast.getCondition());
-            requireAssignable(ast.getCondition().getType(), Environment.Type.BOOLEAN);
-
-            if (ast.getThenStatements().isEmpty()){
-                throw new RuntimeException("Then Statements list is empty");
-            }
-            scope = new Scope(scope);
-
-            ast.getThenStatements().forEach(this::visit);
-
-            if (!ast.getElseStatements().isEmpty()) {
-
-                ast.getElseStatements().forEach(this::visit);
-            }
-        } catch (RuntimeException e) {
-            throw new RuntimeException(e);
-        }
-        finally{
-            scope = scope.getParent();
-
-
-
-
-        }
-        return null;
-    }
-
-    @Override
-    public Void visit(Ast.Statement.For ast) {
-        try {
-            visit(ast.getInitialization());
-
-            visit(ast.getCondition()); //breaks here
-            requireAssignable( Environment.Type.BOOLEAN, ast.getCondition().getType());
-            visit(ast.getIncrement());
-            if (ast.getStatements().isEmpty())
-                throw new RuntimeException("List of statements is empty");
-            ast.getStatements().forEach(this ::visit);
-            return null;
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
-
-    }
-
-    @Override
-    public Void visit(Ast.Statement.While ast){
-        visit(ast.getCondition());
-        requireAssignable(Environment.Type.BOOLEAN, ast.getCondition().getType());
-        try{
-            scope = new Scope(scope);
-            ast.getStatements().forEach(this::visit);
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
-        finally{
-            scope = scope.getParent();
-        }
-        return null;
-
-    }
-
-    @Override
-    public Void visit(Ast.Statement.Return ast) {
-        visit(ast.getValue());
-        scope.defineVariable("return", "return",ast.getValue().getType(), false, Environment.NIL);
-
-        return null;
-    }
-
-    @Override
-    public Void visit(Ast.Expression.Literal ast) {
-        if (ast.getLiteral() instanceof BigInteger) {
-            if (((BigInteger) ast.getLiteral()).compareTo( BigInteger.valueOf(Integer.MAX_VALUE)) > 0){
-                throw new RuntimeException("Integer exceeds the limits.");
-            }
-
-            ast.setType(Environment.Type.INTEGER);
-        }else if (ast.getLiteral() instanceof BigDecimal) {
-            if (((BigDecimal) ast.getLiteral()).compareTo( BigDecimal.valueOf(Double.MAX_VALUE)) > 0){
-                throw new RuntimeException("Decimal exceeds the limits");
-            }
-            ast.setType(Environment.Type.DECIMAL);
-
-        }else if (ast.getLiteral() instanceof Boolean) {
-                ast.setType(Environment.Type.BOOLEAN);
-
-            } else if (ast.getLiteral() instanceof String) {
-                ast.setType(Environment.Type.STRING);
-            } else if (ast.getLiteral() instanceof Character) {
-                ast.setType(Environment.Type.CHARACTER);
-            } else
-                ast.setType(Environment.Type.ANY);
-
-
-                return null;
-            }
-
-    @Override
-    public Void visit(Ast.Expression.Group ast) {
-        if (ast.getExpression() instanceof Ast.Expression.Binary){
-            visit(ast.getExpression());
-            ast.setType(ast.getExpression().getType());
-
-            return null;
-        }
-        throw new RuntimeException("Not a binary expression");
-
-
-    }
-
-    @Override
-    public Void visit(Ast.Expression.Binary ast) {
-        try {
-            visit(ast.getLeft());
-            visit(ast.getRight());
-
-            if (ast.getOperator().equals("OR") || ast.getOperator().equals("AND")) {
-                requireAssignable( Environment.Type.BOOLEAN, ast.getLeft().getType());
-                requireAssignable(Environment.Type.BOOLEAN, ast.getRight().getType());
-                ast.setType(Environment.Type.BOOLEAN);
-            } else if (Set.of("<", ">", "<=", ">=", "!=", "==").contains(ast.getOperator())) {
-
-                requireAssignable(Environment.Type.COMPARABLE, ast.getLeft().getType());
-                requireAssignable( Environment.Type.COMPARABLE, ast.getRight().getType());
-                ast.setType(Environment.Type.BOOLEAN);
-
-            } else if (ast.getOperator().equals("+") &&
-                    ((ast.getRight().getType().equals(Environment.Type.STRING)
-                            || ast.getLeft().getType().equals(Environment.Type.STRING)))) {
-
-
-                ast.setType(Environment.Type.STRING);
-
-
-            } else if (Set.of("-", "*", "/", "+").contains(ast.getOperator())) {
-
-                if (ast.getRight().getType().equals(Environment.Type.INTEGER)) {
-                    requireAssignable(Environment.Type.INTEGER, ast.getLeft().getType());
-                    ast.setType(Environment.Type.INTEGER);
-
-                } else if (ast.getRight().getType().equals(Environment.Type.DECIMAL)) {
-                    requireAssignable( Environment.Type.DECIMAL, ast.getLeft().getType());
-                    ast.setType(Environment.Type.DECIMAL);
-
-                } else {
-                    throw new RuntimeException("Invalid operator's use.");
-                }
-                return null;
-
-            }
-            return null;
-        } catch (RuntimeException e) {
-            throw new RuntimeException(e);
-        }
-    }
-
-    @Override
-    public Void visit(Ast.Expression.Access ast) {
-
-        if (ast.getReceiver().isPresent()){
-            visit(ast.getReceiver().get());
-            ast.setVariable(ast.getReceiver().get().getType().getField(ast.getName()));
-
-        }
-        else {
-            ast.setVariable(scope.lookupVariable(ast.getName()));
-        }
-
-        return null;
-    }
-
-
-
-
-
-
-    @Override
-    public Void visit(Ast.Expression.Function ast) {
-       if (ast.getReceiver().isPresent()){
-           visit(ast.getReceiver().get());
-
-           Environment.Function func = ast.getReceiver().get().getType().getFunction(ast.getName(), ast.getArguments().size());
-           List<Environment.Type> types = func.getParameterTypes();
-
-           //check if passed args types match
-           for (int i =0; i < ast.getArguments().size(); i++ ){
-               visit(ast.getArguments().get(i));
-               requireAssignable(ast.getArguments().get(i).getType(), types.get(i+1));
-           }
-
-           ast.setFunction(func);
-
-       }
-       else{
-           Environment.Function func = scope.lookupFunction(ast.getName(), ast.getArguments().size());
-           List<Environment.Type> types = func.getParameterTypes();
-
-           //check if passed args types match
-           for (int i =0; i < ast.getArguments().size(); i++ ){
-               visit(ast.getArguments().get(i));
-
-               requireAssignable(types.get(i), ast.getArguments().get(i).getType());
-           }
-
-           ast.setFunction(scope.lookupFunction(ast.getName(), ast.getArguments().size()));
-       }
-        return null;
-    }
-
-    public static void requireAssignable(Environment.Type target, Environment.Type type) {
-            if (target.equals(Environment.Type.COMPARABLE)
-                && (type.equals(Environment.Type.INTEGER) || type.equals(Environment.Type.DECIMAL)
-                    || type.equals(Environment.Type.STRING) || type.equals(Environment.Type.CHARACTER)))
-            {
-            }
-            else if (target.equals(Environment.Type.ANY)
-                    && (type.equals(Environment.Type.INTEGER) || type.equals(Environment.Type.DECIMAL)
-                    || type.equals(Environment.Type.STRING) || type.equals(Environment.Type.CHARACTER)
-                    || type.equals(Environment.Type.BOOLEAN)  || type.equals(Environment.Type.COMPARABLE)
-                    || type.equals(Environment.Type.ANY)  || type.equals(Environment.Type.NIL)))
-            {
-            }
-            else if (!type.equals(target)){
-                throw new RuntimeException("Incorrect assignable");
-            }
-
-    }
-
-}
+package plc.project;
+
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * See the specification for information about what the different visit
+ * methods should do.
+ */
+public final class Analyzer implements Ast.Visitor<Void> {
+    public Scope scope;
+    private Scope global;
+    private Ast.Method method;
+    private Map<Object, Integer> order = null;
+    private int index = 0;
+    private Map<String, Object> references = null;
+    private Map<Ast, Map<String, Object>> dependencies = new IdentityHashMap<>();
+    private Map<Environment.Variable, Integer> fieldSlots = new IdentityHashMap<>();
+    private final Map<Environment.Variable, Integer> localSlots = new IdentityHashMap<>();
+    /**
+     * The variables declared in the then branch of the ifs the analyzer is in
+     * the else branch of, which the else branch can't use.
+     */
+    private final Set<Environment.Variable> hidden = Collections.newSetFromMap(new IdentityHashMap<>());
+    /**
+     * The types named by each field, declaration and method node (see {@link
+     * #types(Ast)}), keyed by identity. It's cleared when a source is
+     * analyzed, so it only holds nodes of the current tree, and each analyzer
+     * checking methods in parallel has its own.
+     */
+    private final Map<Ast, Environment.Type[]> types = new IdentityHashMap<>();
+
+    public Analyzer(Scope parent) {
+        scope = new Scope(parent);
+        global = scope;
+        scope.defineFunction("print", "System.out.println", Arrays.asList(Environment.Type.ANY), Environment.Type.NIL, args -> Environment.NIL);
+    }
+
+    /**
+     * Creates an analyzer for checking the body of the method at the given
+     * position on another thread, which only reads from the global scope of the
+     * given analyzer.
+     */
+    private Analyzer(Analyzer global, int index) {
+        this.scope = global.scope;
+        this.global = global.scope;
+        this.fieldSlots = global.fieldSlots;
+        this.order = global.order;
+        this.index = index;
+    }
+
+    public Scope getScope() {
+        return scope;
+    }
+
+    @Override
+    public Void visit(Ast.Source ast) {
+        types.clear();
+        try{
+            ast.getFields().forEach(this::visit);
+            ast.getMethods().forEach(this::visit);
+            if (scope.lookupFunction("main", 0).getType().equals(Environment.Type.INTEGER)){
+
+                return null;
+            }
+            else {
+                throw new RuntimeException("Main does not return an Integer return type.");
+            }
+        }
+        catch(Exception e){
+            throw new RuntimeException("Main is not defined in this scope.");
+        }
+
+    }
+
+    /**
+     * Analyzes the source in the same way as {@link #visit(Ast.Source)}, but
+     * checks the method bodies in parallel on the pool.
+     *
+     * The first phase visits the fields and defines the signature of every
+     * method in the global scope, in order. The second phase checks each
+     * method body on its own analyzer, with its own child scope of the global
+     * one, which is no longer modified. The methods are split into a few
+     * contiguous chunks per thread, so there isn't a task for every method.
+     *
+     * Calls are still resolved as if the methods were analyzed one at a time:
+     * a call to a method declared after the one being checked skips it and
+     * looks in the parent scope instead, so the result and the annotations set
+     * on the tree are the same.
+     */
+    public Void visitParallel(Ast.Source ast, ForkJoinPool pool) {
+        types.clear();
+        try {
+            ast.getFields().forEach(this::visit);
+            order = new IdentityHashMap<>();
+            int fields = ast.getFields().size();
+            for (int i = 0; i < ast.getMethods().size(); i++) {
+                order.put(defineMethod(ast.getMethods().get(i), null), fields + i);
+            }
+            List<Ast.Method> methods = ast.getMethods();
+            List<ForkJoinTask<?>> tasks = new ArrayList<>();
+            int chunks = Math.min(methods.size(), pool.getParallelism() * 4);
+            for (int chunk = 0; chunk < chunks; chunk++) {
+                int from = chunk * methods.size() / chunks;
+                int to = (chunk + 1) * methods.size() / chunks;
+                tasks.add(pool.submit(() -> {
+                    for (int i = from; i < to; i++) {
+                        new Analyzer(this, fields + i).checkMethod(methods.get(i));
+                    }
+                }));
+            }
+            for (ForkJoinTask<?> task : tasks) {
+                task.join();
+            }
+            if (scope.lookupFunction("main", 0).getType().equals(Environment.Type.INTEGER)){
+                return null;
+            }
+            else {
+                throw new RuntimeException("Main does not return an Integer return type.");
+            }
+        }
+        catch(Exception e){
+            throw new RuntimeException("Main is not defined in this scope.");
+        }
+        finally {
+            order = null;
+        }
+    }
+
+    /**
+     * Analyzes the source in the same way as {@link #visit(Ast.Source)}, but
+     * only checks the fields and methods which might have changed since the
+     * last time this was called.
+     *
+     * Each check records the global variables and functions it looked up (by
+     * their key in the scope) as the dependencies of that declaration. The
+     * global scope is rebuilt first, in declaration order, and keeps the
+     * previous variable or function of every declaration whose signature is
+     * the same. A key has changed if its binding is different, if it's no
+     * longer defined, or if its declaration is a different object than before
+     * (which might have been moved, changing what can see it). A declaration
+     * is then only checked again if it's a different object (which is the
+     * case for everything {@link Parser#reparse(Ast.Source, List, int, int,
+     * int)} parsed again) or depends on a changed key. Everything else keeps
+     * its annotations from before, so only the edited code is checked.
+     *
+     * If the analysis fails, the next call checks everything again.
+     */
+    public Void reanalyze(Ast.Source ast) {
+        Scope previous = global;
+        Set<String> changed = new HashSet<>();
+        Map<Ast, Map<String, Object>> checked = new IdentityHashMap<>();
+        types.clear();
+        try {
+            global = scope = new Scope(previous.getParent());
+            scope.defineFunction(previous.functions.get("print/1"));
+            order = new IdentityHashMap<>();
+            List<Ast.Field> fields = ast.getFields();
+            List<Ast.Method> methods = ast.getMethods();
+            Map<Environment.Variable, Integer> slots = new IdentityHashMap<>();
+            for (int i = 0; i < fields.size(); i++) {
+                Ast.Field field = fields.get(i);
+                Environment.Variable variable;
+                if (dependencies.containsKey(field)) {
+                    variable = field.getVariable();
+                } else {
+                    Environment.Type type = types(field)[0];
+                    variable = previous.variables.get(field.getName());
+                    if (variable == null || variable.getType() != type || variable.getConstant() != field.getConstant()) {
+                        variable = new Environment.Variable(field.getName(), field.getName(), type, field.getConstant(), Environment.NIL);
+                    }
+                    changed.add(field.getName());
+                }
+                Integer slot = fieldSlots.get(variable);
+                if (previous.variables.get(field.getName()) != variable || slot == null || slot != i) {
+                    changed.add(field.getName());
+                }
+                scope.defineVariable(variable);
+                field.setVariable(variable);
+                order.put(variable, i);
+                slots.put(variable, i);
+            }
+            fieldSlots = slots;
+            for (int i = 0; i < methods.size(); i++) {
+                Ast.Method method = methods.get(i);
+                Environment.Function function;
+                if (dependencies.containsKey(method)) {
+                    function = scope.defineFunction(method.getFunction());
+                } else {
+                    function = defineMethod(method, previous);
+                    changed.add(method.getName() + "/" + function.getParameterTypes().size());
+                }
+                String key = method.getName() + "/" + function.getParameterTypes().size();
+                if (previous.functions.get(key) != function) {
+                    changed.add(key);
+                }
+                order.put(function, fields.size() + i);
+            }
+            for (String key : previous.variables.keySet()) {
+                if (!scope.variables.containsKey(key)) {
+                    changed.add(key);
+                }
+            }
+            for (String key : previous.functions.keySet()) {
+                if (!scope.functions.containsKey(key)) {
+                    changed.add(key);
+                }
+            }
+            for (index = 0; index < fields.size() + methods.size(); index++) {
+                Ast declaration = index < fields.size() ? fields.get(index) : methods.get(index - fields.size());
+                references = dependencies.get(declaration);
+                if (references == null || (!changed.isEmpty() && !Collections.disjoint(references.keySet(), changed))) {
+                    references = new HashMap<>();
+                    if (declaration instanceof Ast.Field) {
+                        checkField((Ast.Field) declaration);
+                    } else {
+                        checkMethod((Ast.Method) declaration);
+                    }
+                }
+                checked.put(declaration, references);
+            }
+            references = null;
+            if (lookupFunction("main", 0).getType().equals(Environment.Type.INTEGER)){
+                dependencies = checked;
+                return null;
+            }
+            else {
+                throw new RuntimeException("Main does not return an Integer return type.");
+            }
+        }
+        catch(Exception e){
+            dependencies = new IdentityHashMap<>();
+            throw new RuntimeException("Main is not defined in this scope.");
+        }
+        finally {
+            scope = global;
+            order = null;
+            references = null;
+            index = 0;
+        }
+    }
+
+    @Override
+    public Void visit(Ast.Field ast) {
+        checkField(ast);
+        scope.defineVariable(ast.getName(), ast.getName(), types(ast)[0], ast.getConstant(), Environment.NIL);
+        ast.setVariable(scope.lookupVariable(ast.getName()));
+        if (scope == global) {
+            fieldSlots.put(ast.getVariable(), scope.variables.size() - 1);
+        }
+
+       return null;
+    }
+
+    /**
+     * Checks the value of a field, without defining it.
+     */
+    private void checkField(Ast.Field ast) {
+        if(ast.getValue().isPresent()){
+            visit(ast.getValue().get());
+            requireAssignable(ast.getValue().get().getType(), types(ast)[0]);
+
+        }
+        if (ast.getConstant() && ast.getValue().isEmpty()){
+            throw new RuntimeException("A constant field must have an initial value assigned.");
+
+        }
+    }
+
+    @Override
+    public Void visit(Ast.Method ast) {
+        defineMethod(ast, null);
+        checkMethod(ast);
+        return null;
+    }
+
+    /**
+     * Defines the signature of the method in the current scope. If the
+     * previous scope has a function with the same signature, it's defined
+     * again instead of creating a new one.
+     */
+    private Environment.Function defineMethod(Ast.Method ast, Scope previous) {
+        Environment.Type[] types = types(ast);
+        List<Environment.Type> ParamTypes = new ArrayList<>(Arrays.asList(types).subList(0, types.length - 1));
+        Environment.Type returnType = types[types.length - 1];
+        Environment.Function function = previous == null ? null : previous.functions.get(ast.getName() + "/" + ParamTypes.size());
+        if (function != null && function.getParameterTypes().equals(ParamTypes) && function.getReturnType() == returnType) {
+            scope.defineFunction(function);
+        }
+        else {
+            scope.defineFunction(ast.getName(), ast.getName(), ParamTypes, returnType,  args  -> { return Environment.NIL;});
+        }
+        ast.setFunction(scope.lookupFunction(ast.getName(), ParamTypes.size()));
+        return ast.getFunction();
+    }
+
+    /**
+     * Checks the body of a method which was defined by {@link
+     * #defineMethod(Ast.Method)}.
+     */
+    private Void checkMethod(Ast.Method ast) {
+        try {
+            List<Environment.Type> ParamTypes = ast.getFunction().getParameterTypes();
+            scope = new Scope(scope);
+            localSlots.clear();
+
+            for ( int i=0; i<ParamTypes.size(); i++){
+                defineLocal(ast.getParameters().get(i), ParamTypes.get(i));
+
+
+            }
+            for (int i = 0; i < ast.getStatements().size(); i++) {
+               visit(ast.getStatements().get(i));
+               if (ast.getStatements().get(i) instanceof Ast.Statement.Return){
+                   if(ast.getReturnTypeName().isEmpty()){
+                       throw new RuntimeException("Return type is undefined");
+                   }
+
+
+                   Environment.Type returntype = ((Ast.Statement.Return) ast.getStatements().get(i)).getValue().getType();
+
+                   // if(!(Environment.getType(ast.getReturnTypeName().get()).equals(returntype))){
+                    if(!lookupFunction(ast.getName(), ast.getParameters().size()).getType().equals(returntype)){
+                       throw new RuntimeException("Return types differ.");
+                   }
+               }
+           }
+            ast.setFrameSize(scope.variables.size());
+       } catch (RuntimeException e) {
+           throw new RuntimeException(e);
+       }
+       finally{
+            scope = scope.getParent();
+       }
+
+        return null;
+       }
+
+    @Override
+    public Void visit(Ast.Statement.Expression ast) {
+        if(ast.getExpression() instanceof Ast.Expression.Function) {
+            visit(ast.getExpression());
+            return null;
+        }
+        throw new RuntimeException("The expression is not an instance of a function.");
+    }
+
+    @Override
+
+    public Void visit(Ast.Statement.Declaration ast) {
+
+        try{
+            if (ast.getValue().isPresent()) {
+
+                if (ast.getTypeName().isPresent()) {
+                    requireAssignable(types(ast)[0], ast.getValue().get().getType());
+                }
+                visit(ast.getValue().get());
+                ast.setVariable(defineLocal(ast.getName(), ast.getValue().get().getType()));
+            } else {
+                if (!(ast.getTypeName().isPresent()))
+                    throw new RuntimeException("No type is defined");
+
+
+                ast.setVariable(defineLocal(ast.getName(), types(ast)[0]));
+
+            }
+            ast.setSlot(localSlots.getOrDefault(ast.getVariable(), -1));
+
+
+            return null;
+        } catch (RuntimeException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public Void visit(Ast.Statement.Assignment ast) {
+        try {
+            visit(ast.getReceiver());
+            visit(ast.getValue());
+            if (!(ast.getReceiver() instanceof Ast.Expression.Access)
+                    || !(ast.getReceiver().getType().equals(ast.getValue().getType()))) {
+                throw new RuntimeException("Types mismatch");
+            }
+            if(((Ast.Expression.Access) ast.getReceiver()).getReceiver().isPresent()){
+               Ast.Expression expr =  ((Ast.Expression.Access) ast.getReceiver()).getReceiver().get();
+               if(expr.getType().getField(((Ast.Expression.Access) ast.getReceiver()).getName()).getConstant()){
+                   throw new RuntimeException("The variable is constant.");
+
+               }
+
+
+            }
+            else {
+
+                if (lookupVariable(((Ast.Expression.Access) ast.getReceiver()).getName()).getConstant()) {
+                    throw new RuntimeException("The variable is constant.");
+                }
+           }
+            return null;
+        } catch (RuntimeException e) {
+            throw new RuntimeException(e);
+        }
+
+    }
+
+    @Override
+    public Void visit(Ast.Statement.If ast) {
+
+        try {
+            visit(ast.getCondition());
+            requireAssignable(ast.getCondition().getType(), Environment.Type.BOOLEAN);
+
+            if (ast.getThenStatements().isEmpty()){
+                throw new RuntimeException("Then Statements list is empty");
+            }
+            scope = new Scope(scope);
+
+            ast.getThenStatements().forEach(this::visit);
+
+            if (!ast.getElseStatements().isEmpty()) {
+                // the names stay taken, but only one branch runs
+                List<Environment.Variable> then = new ArrayList<>(scope.variables.values());
+                hidden.addAll(then);
+                try {
+                    ast.getElseStatements().forEach(this::visit);
+                } finally {
+                    hidden.removeAll(then);
+                }
+            }
+            ast.setFrameSize(scope.variables.size());
+        } catch (RuntimeException e) {
+            throw new RuntimeException(e);
+        }
+        finally{
+            scope = scope.getParent();
+
+
+
+
+        }
+        return null;
+    }
+
+    @Override
+    public Void visit(Ast.Statement.For ast) {
+        try {
+            visit(ast.getInitialization());
+
+            visit(ast.getCondition()); //breaks here
+            requireAssignable( Environment.Type.BOOLEAN, ast.getCondition().getType());
+            visit(ast.getIncrement());
+            if (ast.getStatements().isEmpty())
+                throw new RuntimeException("List of statements is empty");
+            scope = new Scope(scope);
+            try {
+                ast.getStatements().forEach(this ::visit);
+                ast.setFrameSize(scope.variables.size());
+            } finally {
+                scope = scope.getParent();
+            }
+            return null;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+
+    }
+
+    @Override
+    public Void visit(Ast.Statement.While ast){
+        visit(ast.getCondition());
+        requireAssignable(Environment.Type.BOOLEAN, ast.getCondition().getType());
+        try{
+            scope = new Scope(scope);
+            ast.getStatements().forEach(this::visit);
+            ast.setFrameSize(scope.variables.size());
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        finally{
+            scope = scope.getParent();
+        }
+        return null;
+
+    }
+
+    @Override
+    public Void visit(Ast.Statement.Return ast) {
+        visit(ast.getValue());
+        defineLocal("return", ast.getValue().getType());
+
+        return null;
+    }
+
+    @Override
+    public Void visit(Ast.Expression.Literal ast) {
+        if (ast.getLiteral() instanceof BigInteger) {
+            if (((BigInteger) ast.getLiteral()).compareTo( BigInteger.valueOf(Integer.MAX_VALUE)) > 0){
+                throw new RuntimeException("Integer exceeds the limits.");
+            }
+
+            ast.setType(Environment.Type.INTEGER);
+        }else if (ast.getLiteral() instanceof BigDecimal) {
+            if (((BigDecimal) ast.getLiteral()).compareTo( BigDecimal.valueOf(Double.MAX_VALUE)) > 0){
+                throw new RuntimeException("Decimal exceeds the limits");
+            }
+            ast.setType(Environment.Type.DECIMAL);
+
+        }else if (ast.getLiteral() instanceof Boolean) {
+                ast.setType(Environment.Type.BOOLEAN);
+
+            } else if (ast.getLiteral() instanceof String) {
+                ast.setType(Environment.Type.STRING);
+            } else if (ast.getLiteral() instanceof Character) {
+                ast.setType(Environment.Type.CHARACTER);
+            } else
+                ast.setType(Environment.Type.ANY);
+
+
+                return null;
+            }
+
+    @Override
+    public Void visit(Ast.Expression.Group ast) {
+        if (ast.getExpression() instanceof Ast.Expression.Binary){
+            visit(ast.getExpression());
+            ast.setType(ast.getExpression().getType());
+
+            return null;
+        }
+        throw new RuntimeException("Not a binary expression");
+
+
+    }
+
+    @Override
+    public Void visit(Ast.Expression.Binary ast) {
+        try {
+            visit(ast.getLeft());
+            visit(ast.getRight());
+
+            if (ast.getOperator().equals("OR") || ast.getOperator().equals("AND")) {
+                requireAssignable( Environment.Type.BOOLEAN, ast.getLeft().getType());
+                requireAssignable(Environment.Type.BOOLEAN, ast.getRight().getType());
+                ast.setType(Environment.Type.BOOLEAN);
+            } else if (Set.of("<", ">", "<=", ">=", "!=", "==").contains(ast.getOperator())) {
+
+                requireAssignable(Environment.Type.COMPARABLE, ast.getLeft().getType());
+                requireAssignable( Environment.Type.COMPARABLE, ast.getRight().getType());
+                ast.setType(Environment.Type.BOOLEAN);
+
+            } else if (ast.getOperator().equals("+") &&
+                    ((ast.getRight().getType().equals(Environment.Type.STRING)
+                            || ast.getLeft().getType().equals(Environment.Type.STRING)))) {
+
+
+                ast.setType(Environment.Type.STRING);
+
+
+            } else if (Set.of("-", "*", "/", "+").contains(ast.getOperator())) {
+
+                if (ast.getRight().getType().equals(Environment.Type.INTEGER)) {
+                    requireAssignable(Environment.Type.INTEGER, ast.getLeft().getType());
+                    ast.setType(Environment.Type.INTEGER);
+
+                } else if (ast.getRight().getType().equals(Environment.Type.DECIMAL)) {
+                    requireAssignable( Environment.Type.DECIMAL, ast.getLeft().getType());
+                    ast.setType(Environment.Type.DECIMAL);
+
+                } else {
+                    throw new RuntimeException("Invalid operator's use.");
+                }
+                return null;
+
+            }
+            return null;
+        } catch (RuntimeException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public Void visit(Ast.Expression.Access ast) {
+
+        if (ast.getReceiver().isPresent()){
+            visit(ast.getReceiver().get());
+            ast.setVariable(ast.getReceiver().get().getType().getField(ast.getName()));
+
+        }
+        else {
+            ast.setVariable(lookupVariable(ast.getName()));
+        }
+        setAddress(ast);
+
+        return null;
+    }
+
+    /**
+     * Defines a variable in the current scope, giving it the next slot in the
+     * scope's frame. Local scopes are only added to, so the slot is the
+     * number of variables defined before it.
+     */
+    private Environment.Variable defineLocal(String name, Environment.Type type) {
+        Environment.Variable variable = scope.defineVariable(name, name, type, false, Environment.NIL);
+        if (scope != global) {
+            localSlots.put(variable, scope.variables.size() - 1);
+        }
+        return variable;
+    }
+
+    /**
+     * Sets the frame depth and slot of the variable an access resolved to,
+     * counting each scope from the current one up to the global scope (whose
+     * slots are the fields, in order). Accesses with a receiver or to
+     * variables outside the source don't get an address.
+     */
+    private void setAddress(Ast.Expression.Access ast) {
+        ast.setAddress(-1, -1);
+        if (ast.getReceiver().isPresent()) {
+            return;
+        }
+        int depth = 0;
+        for (Scope local = scope; local != null; local = local.getParent(), depth++) {
+            Environment.Variable variable = local.variables.get(ast.getName());
+            if (hidden.contains(variable)) {
+                continue;
+            }
+            Integer slot = local == global ? fieldSlots.get(variable) : localSlots.get(variable);
+            if (local == global || variable != null) {
+                if (variable == ast.getVariable() && slot != null) {
+                    ast.setAddress(depth, slot);
+                }
+                return;
+            }
+        }
+    }
+
+
+
+
+
+
+    @Override
+    public Void visit(Ast.Expression.Function ast) {
+       if (ast.getReceiver().isPresent()){
+           visit(ast.getReceiver().get());
+
+           Environment.Function func = ast.getReceiver().get().getType().getFunction(ast.getName(), ast.getArguments().size());
+           List<Environment.Type> types = func.getParameterTypes();
+
+           //check if passed args types match
+           for (int i =0; i < ast.getArguments().size(); i++ ){
+               visit(ast.getArguments().get(i));
+               requireAssignable(ast.getArguments().get(i).getType(), types.get(i+1));
+           }
+
+           ast.setFunction(func);
+
+       }
+       else{
+           Environment.Function func = lookupFunction(ast.getName(), ast.getArguments().size());
+           List<Environment.Type> types = func.getParameterTypes();
+
+           //check if passed args types match
+           for (int i =0; i < ast.getArguments().size(); i++ ){
+               visit(ast.getArguments().get(i));
+
+               requireAssignable(types.get(i), ast.getArguments().get(i).getType());
+           }
+
+           ast.setFunction(func);
+       }
+        return null;
+    }
+
+    /**
+     * Looks up a variable in the current scope. Global variables are resolved
+     * with {@link #resolveVariable(String)} and recorded as a dependency of
+     * the declaration being checked.
+     */
+    private Environment.Variable lookupVariable(String name) {
+        for (Scope local = scope; local != global; local = local.getParent()) {
+            if (local == null) {
+                return scope.lookupVariable(name);
+            }
+            if (local.variables.containsKey(name) && !hidden.contains(local.variables.get(name))) {
+                return local.variables.get(name);
+            }
+        }
+        Environment.Variable variable = resolveVariable(name);
+        if (variable == null) {
+            throw new RuntimeException("The variable " + name + " is not defined in this scope.");
+        }
+        if (references != null) {
+            references.put(name, variable);
+        }
+        return variable;
+    }
+
+    /**
+     * Looks up a function in the current scope, in the same way as {@link
+     * #lookupVariable(String)}.
+     */
+    private Environment.Function lookupFunction(String name, int arity) {
+        String key = name + "/" + arity;
+        for (Scope local = scope; local != global; local = local.getParent()) {
+            if (local == null) {
+                return scope.lookupFunction(name, arity);
+            }
+            if (local.functions.containsKey(key)) {
+                return local.functions.get(key);
+            }
+        }
+        Environment.Function function = resolveFunction(key);
+        if (function == null) {
+            throw new RuntimeException("The function " + key + " is not defined in this scope.");
+        }
+        if (references != null) {
+            references.put(key, function);
+        }
+        return function;
+    }
+
+    /**
+     * Returns the global variable with the name, or {@code null} if there
+     * isn't one. When the global scope has every declaration defined up
+     * front, the fields declared at or after the current one are skipped,
+     * since they wouldn't have been defined yet if analyzed sequentially.
+     */
+    private Environment.Variable resolveVariable(String name) {
+        Environment.Variable variable = global.variables.get(name);
+        Integer declared = variable == null || order == null ? null : order.get(variable);
+        if (variable != null && (declared == null || declared < index)) {
+            return variable;
+        }
+        for (Scope parent = global.getParent(); parent != null; parent = parent.getParent()) {
+            if (parent.variables.containsKey(name)) {
+                return parent.variables.get(name);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the global function with the key, or {@code null} if there
+     * isn't one. As in {@link #resolveVariable(String)}, the methods declared
+     * after the current one are skipped.
+     */
+    private Environment.Function resolveFunction(String key) {
+        Environment.Function function = global.functions.get(key);
+        Integer declared = function == null || order == null ? null : order.get(function);
+        if (function != null && (declared == null || declared <= index)) {
+            return function;
+        }
+        for (Scope parent = global.getParent(); parent != null; parent = parent.getParent()) {
+            if (parent.functions.containsKey(key)) {
+                return parent.functions.get(key);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the types named by a field, declaration or method (a field's or
+     * declaration's type, or a method's parameter types followed by its return
+     * type), resolving them the first time. Since a type can't be registered
+     * twice, a name always resolves to the same type and only needs to be
+     * looked up once.
+     */
+    private Environment.Type[] types(Ast ast) {
+        Environment.Type[] resolved = types.get(ast);
+        if (resolved == null) {
+            List<String> names = new ArrayList<>();
+            if (ast instanceof Ast.Field) {
+                names.add(((Ast.Field) ast).getTypeName());
+            } else if (ast instanceof Ast.Statement.Declaration) {
+                ((Ast.Statement.Declaration) ast).getTypeName().ifPresent(names::add);
+            } else {
+                names.addAll(((Ast.Method) ast).getParameterTypeNames());
+                names.add(((Ast.Method) ast).getReturnTypeName().orElse("Nil"));
+            }
+            resolved = new Environment.Type[names.size()];
+            for (int i = 0; i < resolved.length; i++) {
+                resolved[i] = Environment.getType(names.get(i));
+            }
+            types.put(ast, resolved);
+        }
+        return resolved;
+    }
+
+    /**
+     * Requires a value of the given type to be assignable to the target,
+     * using the subtype bits precomputed by {@link
+     * Environment#registerType(Environment.Type)}.
+     */
+    public static void requireAssignable(Environment.Type target, Environment.Type type) {
+        if (!type.isSubtypeOf(target)) {
+            throw new RuntimeException("Incorrect assignable");
+        }
+    }
+
+}
@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.function.Supplier;
 
 /**
  * See each project assignment specification for specific notes on the AST classes
@@ -11,6 +12,13 @@ import java.util.Optional;
  */
 public abstract class Ast {
 
+    /**
+     * Calls the {@link Visitor} method for this node's class, so visiting a
+     * node costs a single virtual call instead of checking its class against
+     * each kind of node in turn.
+     */
+    public abstract <T> T accept(Visitor<T> visitor);
+
     public static final class Source extends Ast {
 
         private final List<Field> fields;
@@ -29,6 +37,11 @@ public abstract class Ast {
             return methods;
         }
 
+        @Override
+        public <T> T accept(Visitor<T> visitor) {
+            return visitor.visit(this);
+        }
+
         @Override
         public boolean equals(Object obj) {
             return obj instanceof Source &&
@@ -94,6 +107,11 @@ public abstract class Ast {
         }
 
 
+        @Override
+        public <T> T accept(Visitor<T> visitor) {
+            return visitor.visit(this);
+        }
+
         @Override
         public boolean equals(Object obj) {
             return obj instanceof Field &&
@@ -123,9 +141,11 @@ public abstract class Ast {
         private final List<String> parameters;
         private final List<String> parameterTypeNames;
         private final Optional<String> returnTypeName;
-        private final List<Statement> statements;
+        private volatile List<Statement> statements;
+        private Supplier<List<Statement>> body;
         private Environment.Function function = null;
-        
+        private int frameSize = -1;
+
         public Method(String name, List<String> parameters, List<Statement> statements) {
             this(name, parameters, new ArrayList<>(), Optional.of("Any"), statements);
             for (int i = 0; i < parameters.size(); i++) {
@@ -142,6 +162,15 @@ public abstract class Ast {
             this.statements = statements;
         }
 
+        /**
+         * Creates a method whose statements are only parsed, by the given
+         * body, the first time {@link #getStatements()} is called.
+         */
+        public Method(String name, List<String> parameters, List<String> parameterTypeNames, Optional<String> returnTypeName, Supplier<List<Statement>> body) {
+            this(name, parameters, parameterTypeNames, returnTypeName, (List<Statement>) null);
+            this.body = body;
+        }
+
         public String getName() {
             return name;
         }
@@ -159,6 +188,14 @@ public abstract class Ast {
         }
 
         public List<Statement> getStatements() {
+            if (statements == null) {
+                synchronized (this) {
+                    if (statements == null) {
+                        statements = body.get();
+                        body = null;
+                    }
+                }
+            }
             return statements;
         }
 
@@ -173,6 +210,25 @@ public abstract class Ast {
             this.function = function;
         }
 
+        /**
+         * Returns the number of slots in the frame for a call to this method,
+         * or {@code -1} if it hasn't been analyzed. The parameters are in the
+         * first slots, in order, followed by the variables declared directly
+         * in the body.
+         */
+        public int getFrameSize() {
+            return frameSize;
+        }
+
+        public void setFrameSize(int frameSize) {
+            this.frameSize = frameSize;
+        }
+
+
+        @Override
+        public <T> T accept(Visitor<T> visitor) {
+            return visitor.visit(this);
+        }
 
         @Override
         public boolean equals(Object obj) {
@@ -181,7 +237,7 @@ public abstract class Ast {
                     parameters.equals(((Ast.Method) obj).parameters) &&
                     parameterTypeNames.equals(((Ast.Method) obj).parameterTypeNames) &&
                     returnTypeName.equals(((Ast.Method) obj).returnTypeName) &&
-                    statements.equals(((Ast.Method) obj).statements) &&
+                    getStatements().equals(((Ast.Method) obj).getStatements()) &&
                     Objects.equals(function, ((Ast.Method) obj).function);
         }
 
@@ -193,7 +249,7 @@ public abstract class Ast {
                     ", parameters=" + parameters +
                     ", parameterTypeNames=" + parameterTypeNames +
                     ", returnTypeName='" + returnTypeName + '\'' +
-                    ", statements=" + statements +
+                    ", statements=" + getStatements() +
                     ", function=" + function +
                     '}';
         }
@@ -214,6 +270,11 @@ public abstract class Ast {
                 return expression;
             }
 
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
             @Override
             public boolean equals(Object obj) {
                 return obj instanceof Ast.Statement.Expression &&
@@ -235,6 +296,7 @@ public abstract class Ast {
             private final Optional<String> typeName;
             private Optional<Ast.Expression> value;
             private Environment.Variable variable = null;
+            private int slot = -1;
 
             public Declaration(String name, Optional<Ast.Expression> value) {
                 this(name, Optional.empty(), value);
@@ -268,8 +330,25 @@ public abstract class Ast {
             public void setVariable(Environment.Variable variable) {
                 this.variable = variable;
             }
+
+            /**
+             * Returns the slot of the variable in the frame of the enclosing
+             * scope, or {@code -1} if it hasn't been analyzed.
+             */
+            public int getSlot() {
+                return slot;
+            }
+
+            public void setSlot(int slot) {
+                this.slot = slot;
+            }
             
             
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
             @Override
             public boolean equals(Object obj) {
                 return obj instanceof Declaration &&
@@ -309,6 +388,11 @@ public abstract class Ast {
                 return value;
             }
 
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
             @Override
             public boolean equals(Object obj) {
                 return obj instanceof Assignment &&
@@ -331,6 +415,7 @@ public abstract class Ast {
             private final Ast.Expression condition;
             private final List<Statement> thenStatements;
             private final List<Statement> elseStatements;
+            private int frameSize = -1;
 
 
             public If(Ast.Expression condition, List<Statement> thenStatements, List<Statement> elseStatements) {
@@ -351,6 +436,23 @@ public abstract class Ast {
                 return elseStatements;
             }
 
+            /**
+             * Returns the number of slots in the frame for the scope of this
+             * statement, or {@code -1} if it hasn't been analyzed.
+             */
+            public int getFrameSize() {
+                return frameSize;
+            }
+
+            public void setFrameSize(int frameSize) {
+                this.frameSize = frameSize;
+            }
+
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
             @Override
             public boolean equals(Object obj) {
                 return obj instanceof If &&
@@ -376,6 +478,7 @@ public abstract class Ast {
             private final Ast.Expression condition;
             private final Statement increment;
             private final List<Statement> statements;
+            private int frameSize = -1;
 
             public For(Statement initialization, Ast.Expression condition, Statement increment, List<Statement> statements) {
                 this.initialization = initialization;
@@ -400,6 +503,24 @@ public abstract class Ast {
                 return statements;
             }
 
+            /**
+             * Returns the number of slots in the frame for the scope of the
+             * body, which each iteration gets a new one of, or {@code -1} if
+             * it hasn't been analyzed.
+             */
+            public int getFrameSize() {
+                return frameSize;
+            }
+
+            public void setFrameSize(int frameSize) {
+                this.frameSize = frameSize;
+            }
+
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
             @Override
             public boolean equals(Object obj) {
 
@@ -446,6 +567,7 @@ public abstract class Ast {
 
             private final Ast.Expression condition;
             private final List<Statement> statements;
+            private int frameSize = -1;
 
             public While(Ast.Expression condition, List<Statement> statements) {
                 this.condition = condition;
@@ -460,6 +582,23 @@ public abstract class Ast {
                 return statements;
             }
 
+            /**
+             * Returns the number of slots in the frame for the scope of this
+             * statement, or {@code -1} if it hasn't been analyzed.
+             */
+            public int getFrameSize() {
+                return frameSize;
+            }
+
+            public void setFrameSize(int frameSize) {
+                this.frameSize = frameSize;
+            }
+
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
             @Override
             public boolean equals(Object obj) {
                 return obj instanceof While &&
@@ -489,6 +628,11 @@ public abstract class Ast {
                 return value;
             }
 
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
             @Override
             public boolean equals(Object obj) {
                 return obj instanceof Return &&
@@ -513,16 +657,38 @@ public abstract class Ast {
         public static final class Literal extends Ast.Expression {
 
             private final Object literal;
+            private final Environment.PlcObject constant;
             private Environment.Type type = null;
             
             public Literal(Object literal) {
+                this(literal, null);
+            }
+
+            private Literal(Object literal, Environment.PlcObject constant) {
                 this.literal = literal;
+                this.constant = constant;
+            }
+
+            /**
+             * Creates a literal for a value from a {@link ConstantPool}, which
+             * the interpreter returns instead of creating a new object.
+             */
+            public static Literal pooled(Environment.PlcObject constant) {
+                return new Literal(constant == Environment.NIL ? null : constant.getValue(), constant);
             }
 
             public Object getLiteral() {
                 return literal;
             }
 
+            /**
+             * Returns the pooled runtime value of this literal, or {@code null}
+             * if it wasn't created from a {@link ConstantPool}.
+             */
+            public Environment.PlcObject getConstant() {
+                return constant;
+            }
+
             @Override
             public Environment.Type getType() {
                 if (type == null) {
@@ -535,6 +701,11 @@ public abstract class Ast {
                 this.type = type;
             }
 
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
             @Override
             public boolean equals(Object obj) {
                 return obj instanceof Literal &&
@@ -578,6 +749,11 @@ public abstract class Ast {
             }
 
 
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
             @Override
             public boolean equals(Object obj) {
                 return obj instanceof Group &&
@@ -633,6 +809,11 @@ public abstract class Ast {
                 this.type = type;
             }
 
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
             @Override
             public boolean equals(Object obj) {
                 return obj instanceof Binary &&
@@ -660,6 +841,8 @@ public abstract class Ast {
             private final Optional<Ast.Expression> receiver;
             private final String name;
             private Environment.Variable variable = null;
+            private int depth = -1;
+            private int slot = -1;
 
             public Access(Optional<Ast.Expression> receiver, String name) {
                 this.receiver = receiver;
@@ -685,11 +868,36 @@ public abstract class Ast {
                 this.variable = variable;
             }
 
+            /**
+             * Returns the number of frames to go up from the current one to
+             * reach the variable, or {@code -1} if it doesn't have an address
+             * (if it hasn't been analyzed, has a receiver, or is defined
+             * outside of the source). Going up past the frame of a method
+             * reaches the fields, where the slot is the index of the field.
+             */
+            public int getDepth() {
+                return depth;
+            }
+
+            public int getSlot() {
+                return slot;
+            }
+
+            public void setAddress(int depth, int slot) {
+                this.depth = depth;
+                this.slot = slot;
+            }
+
             @Override
             public Environment.Type getType() {
                 return getVariable().getType();
             }
 
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
             @Override
             public boolean equals(Object obj) {
                 return obj instanceof Access &&
@@ -751,6 +959,11 @@ public abstract class Ast {
                 return getFunction().getReturnType();
             }
 
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
             @Override
             public boolean equals(Object obj) {
                 return obj instanceof Ast.Expression.Function &&
@@ -774,42 +987,37 @@ public abstract class Ast {
 
     }
 
+    /**
+     * Returns what the {@link Analyzer} set on the node (its variable,
+     * function, or type), or {@code null} if it hasn't been set or the node
+     * doesn't have one. Unlike the getters, this doesn't throw for a node
+     * which hasn't been analyzed, which {@link AstSnapshot} relies on.
+     */
+    static Object getAnnotation(Ast ast) {
+        if (ast instanceof Field) {
+            return ((Field) ast).variable;
+        } else if (ast instanceof Method) {
+            return ((Method) ast).function;
+        } else if (ast instanceof Statement.Declaration) {
+            return ((Statement.Declaration) ast).variable;
+        } else if (ast instanceof Expression.Literal) {
+            return ((Expression.Literal) ast).type;
+        } else if (ast instanceof Expression.Group) {
+            return ((Expression.Group) ast).type;
+        } else if (ast instanceof Expression.Binary) {
+            return ((Expression.Binary) ast).type;
+        } else if (ast instanceof Expression.Access) {
+            return ((Expression.Access) ast).variable;
+        } else if (ast instanceof Expression.Function) {
+            return ((Expression.Function) ast).function;
+        }
+        return null;
+    }
+
     public interface Visitor<T> {
 
         default T visit(Ast ast) {
-            if (ast instanceof Ast.Source) {
-                return visit((Ast.Source) ast);
-            } else if (ast instanceof Ast.Field) {
-                return visit((Ast.Field) ast);
-            } else if (ast instanceof Ast.Method) {
-                return visit((Ast.Method) ast);
-            } else if (ast instanceof Ast.Statement.Expression) {
-                return visit((Ast.Statement.Expression) ast);
-            } else if (ast instanceof Ast.Statement.Declaration) {
-                return visit((Ast.Statement.Declaration) ast);
-            } else if (ast instanceof Ast.Statement.Assignment) {
-                return visit((Ast.Statement.Assignment) ast);
-            } else if (ast instanceof Ast.Statement.If) {
-                return visit((Ast.Statement.If) ast);
-            } else if (ast instanceof Ast.Statement.For) {
-                return visit((Ast.Statement.For) ast);
-            } else if (ast instanceof Ast.Statement.While) {
-                return visit((Ast.Statement.While) ast);
-            } else if (ast instanceof Ast.Statement.Return) {
-                return visit((Ast.Statement.Return) ast);
-            } else if (ast instanceof Ast.Expression.Literal) {
-                return visit((Ast.Expression.Literal) ast);
-            } else if (ast instanceof Ast.Expression.Group) {
-                return visit((Ast.Expression.Group) ast);
-            } else if (ast instanceof Ast.Expression.Binary) {
-                return visit((Ast.Expression.Binary) ast);
-            } else if (ast instanceof Ast.Expression.Access) {
-                return visit((Ast.Expression.Access) ast);
-            } else if (ast instanceof Ast.Expression.Function) {
-                return visit((Ast.Expression.Function) ast);
-            } else {
-                throw new AssertionError("Unimplemented AST type: " + ast.getClass().getName() + ".");
-            }
+            return ast.accept(this);
         }
 
         T visit(Ast.Source ast);
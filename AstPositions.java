@@ -0,0 +1,90 @@
+package plc.project;
+
+import java.util.Arrays;
+
+/**
+ * Maps each {@link Ast} node of a tree to the index of the token it starts
+ * at, without adding a field to every node. The table is keyed by identity
+ * (since nodes with equal contents at different places are still different
+ * nodes) and stores the indices in a flat int array, so a lookup is a single
+ * probe in the common case.
+ *
+ * Positions are only recorded when a table is passed to the parser, so there
+ * is no cost at all when they are turned off. A table is thread-safe, since
+ * the parallel and lazy parsing modes may record positions from other
+ * threads.
+ */
+public final class AstPositions {
+
+    private Ast[] nodes = new Ast[64];
+    private int[] indices = new int[64];
+    private int size = 0;
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Records the index of the token the node starts at, replacing any
+     * previous index for the node.
+     */
+    public synchronized void put(Ast ast, int index) {
+        int slot = probe(nodes, ast);
+        if (nodes[slot] == null) {
+            nodes[slot] = ast;
+            if (++size * 2 > nodes.length) {
+                rehash();
+                slot = probe(nodes, ast);
+            }
+        }
+        indices[slot] = index;
+    }
+
+    /**
+     * Returns the index of the token the node starts at, or {@code -1} if the
+     * node doesn't have a position in this table.
+     */
+    public synchronized int get(Ast ast) {
+        int slot = probe(nodes, ast);
+        return nodes[slot] == null ? -1 : indices[slot];
+    }
+
+    public void putAll(AstPositions other) {
+        Ast[] nodes;
+        int[] indices;
+        synchronized (other) {
+            nodes = Arrays.copyOf(other.nodes, other.nodes.length);
+            indices = Arrays.copyOf(other.indices, other.indices.length);
+        }
+        for (int i = 0; i < nodes.length; i++) {
+            if (nodes[i] != null) {
+                put(nodes[i], indices[i]);
+            }
+        }
+    }
+
+    private void rehash() {
+        Ast[] oldNodes = nodes;
+        int[] oldIndices = indices;
+        nodes = new Ast[oldNodes.length * 2];
+        indices = new int[oldNodes.length * 2];
+        for (int i = 0; i < oldNodes.length; i++) {
+            if (oldNodes[i] != null) {
+                int slot = probe(nodes, oldNodes[i]);
+                nodes[slot] = oldNodes[i];
+                indices[slot] = oldIndices[i];
+            }
+        }
+    }
+
+    private static int probe(Ast[] nodes, Ast ast) {
+        int mask = nodes.length - 1;
+        int hash = System.identityHashCode(ast);
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (nodes[slot] != null && nodes[slot] != ast) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+}
@@ -0,0 +1,614 @@
+package plc.project;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * A compact binary format for an {@link Ast.Source}, including what the
+ * {@link Analyzer} set on it, so a program can be loaded without lexing or
+ * parsing it again (see {@link Cache}).
+ *
+ * The nodes are written in pre-order, each as its {@link FlatAst} kind
+ * followed by its children and names, with {@code -1} for an absent optional
+ * node. The frame sizes, slots and addresses the analyzer sets are written
+ * with the nodes, as {@code -1} if it didn't set them. Strings, variables and functions are written in full the first time
+ * they appear and by id afterwards, so names are stored once and a variable
+ * shared by a field and its accesses is still shared once loaded. Types are
+ * stored by name and loaded with {@link Environment#getType(String)}, so only
+ * registered types can be loaded. Functions are loaded with a body which
+ * returns {@link Environment#NIL}, as the analyzer defines them.
+ */
+public final class AstSnapshot {
+
+    private static final int MAGIC = 0x504C4341;
+    private static final int VERSION = 3;
+
+    private static final int NIL = 0;
+    private static final int TRUE = 1;
+    private static final int FALSE = 2;
+    private static final int INTEGER = 3;
+    private static final int DECIMAL = 4;
+    private static final int CHARACTER = 5;
+    private static final int STRING = 6;
+
+    private AstSnapshot() {}
+
+    public static byte[] write(Ast.Source source) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            Writer writer = new Writer(new DataOutputStream(bytes));
+            writer.out.writeInt(MAGIC);
+            writer.out.writeInt(VERSION);
+            writer.write(source);
+            writer.out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Reads a source written by {@link #write(Ast.Source)}, throwing an
+     * {@link IllegalArgumentException} if the data isn't a valid snapshot.
+     */
+    public static Ast.Source read(byte[] data) {
+        ByteBuffer in = ByteBuffer.wrap(data);
+        try {
+            if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+                throw new IllegalArgumentException("Not a snapshot of this version.");
+            }
+            Ast ast = new Reader(in).read();
+            if (!(ast instanceof Ast.Source) || in.hasRemaining()) {
+                throw new IllegalArgumentException("Invalid snapshot.");
+            }
+            return (Ast.Source) ast;
+        } catch (BufferUnderflowException | ClassCastException | IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Invalid snapshot.", e);
+        }
+    }
+
+    private static final class Writer {
+
+        private final DataOutputStream out;
+        private final Map<String, Integer> strings = new HashMap<>();
+        private final Map<Object, Integer> objects = new IdentityHashMap<>();
+
+        private Writer(DataOutputStream out) {
+            this.out = out;
+        }
+
+        private void write(Ast ast) throws IOException {
+            if (ast == null) {
+                out.writeByte(-1);
+            } else if (ast instanceof Ast.Source) {
+                out.writeByte(FlatAst.SOURCE);
+                writeAll(((Ast.Source) ast).getFields());
+                writeAll(((Ast.Source) ast).getMethods());
+            } else if (ast instanceof Ast.Field) {
+                Ast.Field field = (Ast.Field) ast;
+                out.writeByte(FlatAst.FIELD);
+                writeString(field.getName());
+                writeString(field.getTypeName());
+                out.writeBoolean(field.getConstant());
+                write(field.getValue().orElse(null));
+                writeVariable((Environment.Variable) Ast.getAnnotation(ast));
+            } else if (ast instanceof Ast.Method) {
+                Ast.Method method = (Ast.Method) ast;
+                out.writeByte(FlatAst.METHOD);
+                writeString(method.getName());
+                writeStrings(method.getParameters());
+                writeStrings(method.getParameterTypeNames());
+                writeString(method.getReturnTypeName().orElse(null));
+                writeAll(method.getStatements());
+                writeFunction((Environment.Function) Ast.getAnnotation(ast));
+                writeInt(method.getFrameSize());
+            } else if (ast instanceof Ast.Statement.Expression) {
+                out.writeByte(FlatAst.EXPRESSION);
+                write(((Ast.Statement.Expression) ast).getExpression());
+            } else if (ast instanceof Ast.Statement.Declaration) {
+                Ast.Statement.Declaration declaration = (Ast.Statement.Declaration) ast;
+                out.writeByte(FlatAst.DECLARATION);
+                writeString(declaration.getName());
+                writeString(declaration.getTypeName().orElse(null));
+                write(declaration.getValue().orElse(null));
+                writeVariable((Environment.Variable) Ast.getAnnotation(ast));
+                writeInt(declaration.getSlot());
+            } else if (ast instanceof Ast.Statement.Assignment) {
+                out.writeByte(FlatAst.ASSIGNMENT);
+                write(((Ast.Statement.Assignment) ast).getReceiver());
+                write(((Ast.Statement.Assignment) ast).getValue());
+            } else if (ast instanceof Ast.Statement.If) {
+                out.writeByte(FlatAst.IF);
+                write(((Ast.Statement.If) ast).getCondition());
+                writeAll(((Ast.Statement.If) ast).getThenStatements());
+                writeAll(((Ast.Statement.If) ast).getElseStatements());
+                writeInt(((Ast.Statement.If) ast).getFrameSize());
+            } else if (ast instanceof Ast.Statement.For) {
+                out.writeByte(FlatAst.FOR);
+                write(((Ast.Statement.For) ast).getInitialization());
+                write(((Ast.Statement.For) ast).getCondition());
+                write(((Ast.Statement.For) ast).getIncrement());
+                writeAll(((Ast.Statement.For) ast).getStatements());
+                writeInt(((Ast.Statement.For) ast).getFrameSize());
+            } else if (ast instanceof Ast.Statement.While) {
+                out.writeByte(FlatAst.WHILE);
+                write(((Ast.Statement.While) ast).getCondition());
+                writeAll(((Ast.Statement.While) ast).getStatements());
+                writeInt(((Ast.Statement.While) ast).getFrameSize());
+            } else if (ast instanceof Ast.Statement.Return) {
+                out.writeByte(FlatAst.RETURN);
+                write(((Ast.Statement.Return) ast).getValue());
+            } else if (ast instanceof Ast.Expression.Literal) {
+                out.writeByte(FlatAst.LITERAL);
+                writeLiteral(((Ast.Expression.Literal) ast).getLiteral());
+                writeType((Environment.Type) Ast.getAnnotation(ast));
+            } else if (ast instanceof Ast.Expression.Group) {
+                out.writeByte(FlatAst.GROUP);
+                write(((Ast.Expression.Group) ast).getExpression());
+                writeType((Environment.Type) Ast.getAnnotation(ast));
+            } else if (ast instanceof Ast.Expression.Binary) {
+                Ast.Expression.Binary binary = (Ast.Expression.Binary) ast;
+                out.writeByte(FlatAst.BINARY);
+                writeString(binary.getOperator());
+                write(binary.getLeft());
+                write(binary.getRight());
+                writeType((Environment.Type) Ast.getAnnotation(ast));
+            } else if (ast instanceof Ast.Expression.Access) {
+                out.writeByte(FlatAst.ACCESS);
+                write(((Ast.Expression.Access) ast).getReceiver().orElse(null));
+                writeString(((Ast.Expression.Access) ast).getName());
+                writeVariable((Environment.Variable) Ast.getAnnotation(ast));
+                writeInt(((Ast.Expression.Access) ast).getDepth());
+                writeInt(((Ast.Expression.Access) ast).getSlot());
+            } else if (ast instanceof Ast.Expression.Function) {
+                Ast.Expression.Function function = (Ast.Expression.Function) ast;
+                out.writeByte(FlatAst.FUNCTION);
+                write(function.getReceiver().orElse(null));
+                writeString(function.getName());
+                writeAll(function.getArguments());
+                writeFunction((Environment.Function) Ast.getAnnotation(ast));
+            } else {
+                throw new AssertionError("Unimplemented AST type: " + ast.getClass().getName() + ".");
+            }
+        }
+
+        private void writeAll(List<? extends Ast> asts) throws IOException {
+            writeInt(asts.size());
+            for (Ast ast : asts) {
+                write(ast);
+            }
+        }
+
+        private void writeLiteral(Object literal) throws IOException {
+            if (literal == null) {
+                out.writeByte(NIL);
+            } else if (literal instanceof Boolean) {
+                out.writeByte((Boolean) literal ? TRUE : FALSE);
+            } else if (literal instanceof BigInteger) {
+                out.writeByte(INTEGER);
+                writeBytes(((BigInteger) literal).toByteArray());
+            } else if (literal instanceof BigDecimal) {
+                out.writeByte(DECIMAL);
+                writeInt(((BigDecimal) literal).scale());
+                writeBytes(((BigDecimal) literal).unscaledValue().toByteArray());
+            } else if (literal instanceof Character) {
+                out.writeByte(CHARACTER);
+                out.writeChar((Character) literal);
+            } else if (literal instanceof String) {
+                out.writeByte(STRING);
+                writeString((String) literal);
+            } else {
+                throw new IllegalArgumentException("Unsupported literal " + literal.getClass().getName() + ".");
+            }
+        }
+
+        /**
+         * Writes an int as a zigzag varint, so small ids and sizes (and
+         * {@code -1}) take a single byte.
+         */
+        private void writeInt(int value) throws IOException {
+            int zigzag = (value << 1) ^ (value >> 31);
+            while ((zigzag & ~0x7F) != 0) {
+                out.writeByte((zigzag & 0x7F) | 0x80);
+                zigzag >>>= 7;
+            }
+            out.writeByte(zigzag);
+        }
+
+        private void writeBytes(byte[] bytes) throws IOException {
+            writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        /**
+         * Writes the id of the string, preceded the first time by its UTF-8
+         * bytes, or {@code -1} if it is null.
+         */
+        private void writeString(String string) throws IOException {
+            if (string == null) {
+                writeInt(-1);
+            } else if (strings.containsKey(string)) {
+                writeInt(strings.get(string));
+            } else {
+                writeInt(strings.size());
+                strings.put(string, strings.size());
+                writeBytes(string.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        private void writeStrings(List<String> strings) throws IOException {
+            writeInt(strings.size());
+            for (String string : strings) {
+                writeString(string);
+            }
+        }
+
+        private void writeType(Environment.Type type) throws IOException {
+            writeString(type == null ? null : type.getName());
+        }
+
+        /**
+         * Writes the id of the object, returning true if it is the first time
+         * so the caller writes its contents too.
+         */
+        private boolean writeObject(Object object) throws IOException {
+            if (object == null) {
+                writeInt(-1);
+                return false;
+            } else if (objects.containsKey(object)) {
+                writeInt(objects.get(object));
+                return false;
+            }
+            writeInt(objects.size());
+            objects.put(object, objects.size());
+            return true;
+        }
+
+        private void writeVariable(Environment.Variable variable) throws IOException {
+            if (writeObject(variable)) {
+                writeString(variable.getName());
+                writeString(variable.getJvmName());
+                writeType(variable.getType());
+                out.writeBoolean(variable.getConstant());
+            }
+        }
+
+        private void writeFunction(Environment.Function function) throws IOException {
+            if (writeObject(function)) {
+                writeString(function.getName());
+                writeString(function.getJvmName());
+                writeInt(function.getParameterTypes().size());
+                for (Environment.Type type : function.getParameterTypes()) {
+                    writeType(type);
+                }
+                writeType(function.getReturnType());
+            }
+        }
+
+    }
+
+    private static final class Reader {
+
+        private final ByteBuffer in;
+        private final List<String> strings = new ArrayList<>();
+        private final List<Object> objects = new ArrayList<>();
+
+        private Reader(ByteBuffer in) {
+            this.in = in;
+        }
+
+        private Ast read() {
+            int kind = in.get();
+            switch (kind) {
+                case -1:
+                    return null;
+                case FlatAst.SOURCE: {
+                    List<Ast.Field> fields = readAll();
+                    List<Ast.Method> methods = readAll();
+                    return new Ast.Source(fields, methods);
+                }
+                case FlatAst.FIELD: {
+                    Ast.Field field = new Ast.Field(readString(), readString(), in.get() != 0, Optional.ofNullable((Ast.Expression) read()));
+                    Environment.Variable variable = readVariable();
+                    if (variable != null) {
+                        field.setVariable(variable);
+                    }
+                    return field;
+                }
+                case FlatAst.METHOD: {
+                    String name = readString();
+                    List<String> parameters = readStrings();
+                    List<String> parameterTypeNames = readStrings();
+                    Optional<String> returnTypeName = Optional.ofNullable(readString());
+                    Ast.Method method = new Ast.Method(name, parameters, parameterTypeNames, returnTypeName, this.<Ast.Statement>readAll());
+                    Environment.Function function = readFunction();
+                    if (function != null) {
+                        method.setFunction(function);
+                    }
+                    method.setFrameSize(readInt());
+                    return method;
+                }
+                case FlatAst.EXPRESSION:
+                    return new Ast.Statement.Expression((Ast.Expression) read());
+                case FlatAst.DECLARATION: {
+                    Ast.Statement.Declaration declaration = new Ast.Statement.Declaration(readString(), Optional.ofNullable(readString()), Optional.ofNullable((Ast.Expression) read()));
+                    Environment.Variable variable = readVariable();
+                    if (variable != null) {
+                        declaration.setVariable(variable);
+                    }
+                    declaration.setSlot(readInt());
+                    return declaration;
+                }
+                case FlatAst.ASSIGNMENT:
+                    return new Ast.Statement.Assignment((Ast.Expression) read(), (Ast.Expression) read());
+                case FlatAst.IF: {
+                    Ast.Expression condition = (Ast.Expression) read();
+                    List<Ast.Statement> thenStatements = readAll();
+                    Ast.Statement.If ifStatement = new Ast.Statement.If(condition, thenStatements, readAll());
+                    ifStatement.setFrameSize(readInt());
+                    return ifStatement;
+                }
+                case FlatAst.FOR: {
+                    Ast.Statement.For forStatement = new Ast.Statement.For((Ast.Statement) read(), (Ast.Expression) read(), (Ast.Statement) read(), readAll());
+                    forStatement.setFrameSize(readInt());
+                    return forStatement;
+                }
+                case FlatAst.WHILE: {
+                    Ast.Statement.While whileStatement = new Ast.Statement.While((Ast.Expression) read(), readAll());
+                    whileStatement.setFrameSize(readInt());
+                    return whileStatement;
+                }
+                case FlatAst.RETURN:
+                    return new Ast.Statement.Return((Ast.Expression) read());
+                case FlatAst.LITERAL: {
+                    Ast.Expression.Literal literal = new Ast.Expression.Literal(readLiteral());
+                    Environment.Type type = readType();
+                    if (type != null) {
+                        literal.setType(type);
+                    }
+                    return literal;
+                }
+                case FlatAst.GROUP: {
+                    Ast.Expression.Group group = new Ast.Expression.Group((Ast.Expression) read());
+                    Environment.Type type = readType();
+                    if (type != null) {
+                        group.setType(type);
+                    }
+                    return group;
+                }
+                case FlatAst.BINARY: {
+                    Ast.Expression.Binary binary = new Ast.Expression.Binary(readString(), (Ast.Expression) read(), (Ast.Expression) read());
+                    Environment.Type type = readType();
+                    if (type != null) {
+                        binary.setType(type);
+                    }
+                    return binary;
+                }
+                case FlatAst.ACCESS: {
+                    Ast.Expression.Access access = new Ast.Expression.Access(Optional.ofNullable((Ast.Expression) read()), readString());
+                    Environment.Variable variable = readVariable();
+                    if (variable != null) {
+                        access.setVariable(variable);
+                    }
+                    int depth = readInt();
+                    access.setAddress(depth, readInt());
+                    return access;
+                }
+                case FlatAst.FUNCTION: {
+                    Optional<Ast.Expression> receiver = Optional.ofNullable((Ast.Expression) read());
+                    String name = readString();
+                    Ast.Expression.Function function = new Ast.Expression.Function(receiver, name, readAll());
+                    Environment.Function annotation = readFunction();
+                    if (annotation != null) {
+                        function.setFunction(annotation);
+                    }
+                    return function;
+                }
+                default:
+                    throw new IllegalArgumentException("Invalid node kind " + kind + ".");
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private <T extends Ast> List<T> readAll() {
+            int size = readInt();
+            List<T> asts = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                asts.add((T) read());
+            }
+            return asts;
+        }
+
+        private Object readLiteral() {
+            int tag = in.get();
+            switch (tag) {
+                case NIL:
+                    return null;
+                case TRUE:
+                    return true;
+                case FALSE:
+                    return false;
+                case INTEGER:
+                    return new BigInteger(readBytes());
+                case DECIMAL: {
+                    int scale = readInt();
+                    return new BigDecimal(new BigInteger(readBytes()), scale);
+                }
+                case CHARACTER:
+                    return in.getChar();
+                case STRING:
+                    return readString();
+                default:
+                    throw new IllegalArgumentException("Invalid literal tag " + tag + ".");
+            }
+        }
+
+        private int readInt() {
+            int zigzag = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = in.get();
+                zigzag |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    break;
+                } else if (shift >= 28) {
+                    throw new IllegalArgumentException("Invalid varint.");
+                }
+            }
+            return (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+
+        private byte[] readBytes() {
+            byte[] bytes = new byte[readInt()];
+            in.get(bytes);
+            return bytes;
+        }
+
+        private String readString() {
+            int id = readInt();
+            if (id < 0) {
+                return null;
+            } else if (id < strings.size()) {
+                return strings.get(id);
+            } else if (id != strings.size()) {
+                throw new IllegalArgumentException("Invalid string id " + id + ".");
+            }
+            int length = readInt();
+            String string = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+            in.position(in.position() + length);
+            strings.add(string);
+            return string;
+        }
+
+        private List<String> readStrings() {
+            int size = readInt();
+            List<String> strings = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                strings.add(readString());
+            }
+            return strings;
+        }
+
+        private Environment.Type readType() {
+            String name = readString();
+            return name == null ? null : Environment.getType(name);
+        }
+
+        private Environment.Variable readVariable() {
+            int id = readInt();
+            if (id < 0) {
+                return null;
+            } else if (id < objects.size()) {
+                return (Environment.Variable) objects.get(id);
+            } else if (id != objects.size()) {
+                throw new IllegalArgumentException("Invalid object id " + id + ".");
+            }
+            objects.add(null);
+            Environment.Variable variable = new Environment.Variable(readString(), readString(), readType(), in.get() != 0, Environment.NIL);
+            objects.set(id, variable);
+            return variable;
+        }
+
+        private Environment.Function readFunction() {
+            int id = readInt();
+            if (id < 0) {
+                return null;
+            } else if (id < objects.size()) {
+                return (Environment.Function) objects.get(id);
+            } else if (id != objects.size()) {
+                throw new IllegalArgumentException("Invalid object id " + id + ".");
+            }
+            objects.add(null);
+            String name = readString();
+            String jvmName = readString();
+            int arity = readInt();
+            List<Environment.Type> parameterTypes = new ArrayList<>(arity);
+            for (int i = 0; i < arity; i++) {
+                parameterTypes.add(readType());
+            }
+            Environment.Function function = new Environment.Function(name, jvmName, parameterTypes, readType(), args -> Environment.NIL);
+            objects.set(id, function);
+            return function;
+        }
+
+    }
+
+    /**
+     * A directory of snapshots, each named by a hash of the source text it was
+     * parsed (and possibly analyzed) from. Loading a source which was stored
+     * before needs only the hash and the snapshot, with no lexing or parsing.
+     */
+    public static final class Cache {
+
+        private final Path directory;
+
+        public Cache(Path directory) {
+            this.directory = directory;
+        }
+
+        public Path getPath(String source) {
+            return directory.resolve(hash(source) + ".ast");
+        }
+
+        /**
+         * Returns the stored snapshot for the source, or {@code null} if there
+         * isn't one or it can't be read (such as from an older version).
+         */
+        public Ast.Source load(String source) {
+            try {
+                return read(Files.readAllBytes(getPath(source)));
+            } catch (IOException | RuntimeException e) {
+                return null;
+            }
+        }
+
+        /**
+         * Stores a snapshot of the source's tree, replacing any existing one.
+         * The snapshot is written to a temporary file first so that a
+         * concurrent {@link #load(String)} never sees part of it.
+         */
+        public void store(String source, Ast.Source ast) throws IOException {
+            Files.createDirectories(directory);
+            Path path = getPath(source);
+            Path temporary = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+            try {
+                Files.write(temporary, write(ast));
+                Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+        }
+
+        private static String hash(String source) {
+            try {
+                byte[] digest = MessageDigest.getInstance("SHA-256").digest(source.getBytes(StandardCharsets.UTF_8));
+                StringBuilder builder = new StringBuilder();
+                for (byte b : digest) {
+                    builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+                }
+                return builder.toString();
+            } catch (NoSuchAlgorithmException e) {
+                throw new AssertionError(e);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,38 @@
+package plc.project;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Deduplicates the literal values of a program as it is parsed. Each distinct
+ * value (by {@link Object#equals(Object)}, so {@code 1.0} and {@code 1.00} are
+ * still different decimals) is stored once along with the runtime object for
+ * it, which {@link Ast.Expression.Literal} nodes keep a reference to. This
+ * lets the interpreter evaluate a literal without allocating anything.
+ *
+ * The runtime objects are shared by every evaluation of every occurrence of
+ * the literal, which is safe since values of the built-in types don't have
+ * any fields to set. A pool is thread-safe, so the parsers of a parallel or
+ * lazy parse can share one.
+ */
+public final class ConstantPool {
+
+    private final Map<Object, Environment.PlcObject> constants = new ConcurrentHashMap<>();
+
+    public int size() {
+        return constants.size();
+    }
+
+    /**
+     * Returns the runtime object for the literal value, creating it the first
+     * time the value is seen. The value of the returned object is the one
+     * which was first added, so equal literals also share the same value.
+     */
+    public Environment.PlcObject intern(Object literal) {
+        if (literal == null) {
+            return Environment.NIL;
+        }
+        return constants.computeIfAbsent(literal, Environment::create);
+    }
+
+}
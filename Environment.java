@@ -2,6 +2,7 @@ package plc.project;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -22,6 +23,7 @@ public final class Environment {
     });
 
     private static final Map<String, Type> TYPES = new HashMap<>();
+    private static final List<Type> ORDINALS = new ArrayList<>();
 
     public static Type getType(String name) {
         if (!TYPES.containsKey(name)) {
@@ -35,6 +37,16 @@ public final class Environment {
             throw new IllegalArgumentException("Duplicate registration of type " + type.getName() + ".");
         }
         TYPES.put(type.getName(), type);
+        type.ordinal = ORDINALS.size();
+        ORDINALS.add(type);
+        for (Type other : ORDINALS) {
+            if (other == type || Type.isAncestor(other.scope, type.scope)) {
+                type.supertypes.set(other.ordinal);
+            }
+            if (Type.isAncestor(type.scope, other.scope)) {
+                other.supertypes.set(type.ordinal);
+            }
+        }
     }
 
     public static final class Type {
@@ -51,6 +63,8 @@ public final class Environment {
         private final String name;
         private final String jvmName;
         private final Scope scope;
+        private int ordinal = -1;
+        private final BitSet supertypes = new BitSet();
 
         public Type(String name, String jvmName, Scope scope) {
             this.name = name;
@@ -78,6 +92,29 @@ public final class Environment {
             return scope.lookupFunction(name, arity + 1);
         }
 
+        /**
+         * Returns true if this type can be assigned to the other one, which
+         * is when the other type's scope is (or is a parent of) this type's
+         * scope, the same way types inherit fields and functions. For
+         * registered types this is precomputed as a row of bits indexed by
+         * the ordinal of each supertype, so it's a single bit test.
+         */
+        public boolean isSubtypeOf(Type other) {
+            if (ordinal >= 0 && other.ordinal >= 0) {
+                return supertypes.get(other.ordinal);
+            }
+            return this == other || isAncestor(other.scope, scope);
+        }
+
+        private static boolean isAncestor(Scope ancestor, Scope scope) {
+            for (Scope parent = scope.getParent(); parent != null; parent = parent.getParent()) {
+                if (parent == ancestor) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
         @Override
         public String toString() {
             return "Type{" +
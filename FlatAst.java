@@ -0,0 +1,400 @@
+package plc.project;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * A flat encoding of an {@link Ast.Source}, where each node is an int id
+ * instead of an object. Every node has a kind and a fixed number of int
+ * operands stored together in one array, and the nodes are numbered in
+ * pre-order, so walking the tree reads mostly forwards through memory.
+ *
+ * An operand is one of:
+ *
+ *  - a node id, or {@code -1} for an absent optional node,
+ *  - an index into the constant pool, for names, type names, operators and
+ *    literal values, or {@code -1} for an absent optional name,
+ *  - a list, which is the position of its length in the operand array with
+ *    the elements following it (read with {@link #size(int, int)} and {@link
+ *    #get(int, int, int)}), or
+ *  - a flag, {@code 0} or {@code 1}.
+ *
+ * The operands of each kind, in order, are:
+ *
+ *  - {@link #SOURCE}: fields (list), methods (list)
+ *  - {@link #FIELD}: name, type name, constant (flag), value (optional node)
+ *  - {@link #METHOD}: name, parameters (list of names), parameter type names
+ *    (list of names), return type name (optional), statements (list)
+ *  - {@link #EXPRESSION}: expression
+ *  - {@link #DECLARATION}: name, type name (optional), value (optional node)
+ *  - {@link #ASSIGNMENT}: receiver, value
+ *  - {@link #IF}: condition, then statements (list), else statements (list)
+ *  - {@link #FOR}: initialization (optional node), condition, increment
+ *    (optional node), statements (list)
+ *  - {@link #WHILE}: condition, statements (list)
+ *  - {@link #RETURN}: value
+ *  - {@link #LITERAL}: literal
+ *  - {@link #GROUP}: expression
+ *  - {@link #BINARY}: operator, left, right
+ *  - {@link #ACCESS}: receiver (optional node), name
+ *  - {@link #FUNCTION}: receiver (optional node), name, arguments (list)
+ *
+ * The root {@link #SOURCE} node is always node {@code 0}. Only the syntax is
+ * encoded; the variables, functions and types set by the {@link Analyzer} are
+ * not, so {@link #toAst()} returns a tree which hasn't been analyzed.
+ *
+ * This is only the encoding and its conversions. The {@link Analyzer} and
+ * {@link Interpreter} still run over {@link Ast} objects, and the kinds are
+ * otherwise only used as the node tags of {@link AstSnapshot}.
+ */
+public final class FlatAst {
+
+    public static final int SOURCE = 0;
+    public static final int FIELD = 1;
+    public static final int METHOD = 2;
+    public static final int EXPRESSION = 3;
+    public static final int DECLARATION = 4;
+    public static final int ASSIGNMENT = 5;
+    public static final int IF = 6;
+    public static final int FOR = 7;
+    public static final int WHILE = 8;
+    public static final int RETURN = 9;
+    public static final int LITERAL = 10;
+    public static final int GROUP = 11;
+    public static final int BINARY = 12;
+    public static final int ACCESS = 13;
+    public static final int FUNCTION = 14;
+
+    private byte[] kinds = new byte[64];
+    private int[] offsets = new int[64];
+    private int[] operands = new int[256];
+    private Object[] constants = new Object[16];
+    private int nodes = 0;
+    private int size = 0;
+    private int constantCount = 0;
+    private Map<Object, Integer> pool = new HashMap<>();
+
+    public FlatAst(Ast.Source source) {
+        encode(source);
+        pool = null;
+    }
+
+    public int getNodeCount() {
+        return nodes;
+    }
+
+    public int getKind(int node) {
+        return kinds[check(node)];
+    }
+
+    /**
+     * Returns the raw value of an operand of the node, as described above.
+     */
+    public int get(int node, int operand) {
+        return operands[offsets[check(node)] + operand];
+    }
+
+    /**
+     * Returns the number of elements in a list operand of the node.
+     */
+    public int size(int node, int operand) {
+        return operands[get(node, operand)];
+    }
+
+    /**
+     * Returns element {@code i} of a list operand of the node.
+     */
+    public int get(int node, int operand, int i) {
+        int list = get(node, operand);
+        if (i < 0 || i >= operands[list]) {
+            throw new IndexOutOfBoundsException("Element " + i + " of a list of size " + operands[list] + ".");
+        }
+        return operands[list + 1 + i];
+    }
+
+    /**
+     * Returns the constant (a name or literal value) referenced by an operand
+     * of the node, or {@code null} if it is absent.
+     */
+    public Object getConstant(int node, int operand) {
+        int constant = get(node, operand);
+        return constant < 0 ? null : constants[constant];
+    }
+
+    public String getName(int node, int operand) {
+        return (String) getConstant(node, operand);
+    }
+
+    /**
+     * Returns the number of distinct constants in the pool, which is shared
+     * by every node with an equal name or literal.
+     */
+    public int getConstantCount() {
+        return constantCount;
+    }
+
+    public Ast.Source toAst() {
+        return (Ast.Source) toAst(0);
+    }
+
+    /**
+     * Converts the node and its children back into {@link Ast} objects.
+     */
+    public Ast toAst(int node) {
+        switch (getKind(node)) {
+            case SOURCE: {
+                List<Ast.Field> fields = new ArrayList<>();
+                for (int i = 0; i < size(node, 0); i++) {
+                    fields.add((Ast.Field) toAst(get(node, 0, i)));
+                }
+                List<Ast.Method> methods = new ArrayList<>();
+                for (int i = 0; i < size(node, 1); i++) {
+                    methods.add((Ast.Method) toAst(get(node, 1, i)));
+                }
+                return new Ast.Source(fields, methods);
+            }
+            case FIELD:
+                return new Ast.Field(getName(node, 0), getName(node, 1), get(node, 2) != 0, expression(get(node, 3)));
+            case METHOD:
+                return new Ast.Method(getName(node, 0), names(node, 1), names(node, 2), Optional.ofNullable(getName(node, 3)), statements(node, 4));
+            case EXPRESSION:
+                return new Ast.Statement.Expression((Ast.Expression) toAst(get(node, 0)));
+            case DECLARATION:
+                return new Ast.Statement.Declaration(getName(node, 0), Optional.ofNullable(getName(node, 1)), expression(get(node, 2)));
+            case ASSIGNMENT:
+                return new Ast.Statement.Assignment((Ast.Expression) toAst(get(node, 0)), (Ast.Expression) toAst(get(node, 1)));
+            case IF:
+                return new Ast.Statement.If((Ast.Expression) toAst(get(node, 0)), statements(node, 1), statements(node, 2));
+            case FOR:
+                return new Ast.Statement.For(get(node, 0) < 0 ? null : (Ast.Statement) toAst(get(node, 0)), (Ast.Expression) toAst(get(node, 1)),
+                        get(node, 2) < 0 ? null : (Ast.Statement) toAst(get(node, 2)), statements(node, 3));
+            case WHILE:
+                return new Ast.Statement.While((Ast.Expression) toAst(get(node, 0)), statements(node, 1));
+            case RETURN:
+                return new Ast.Statement.Return((Ast.Expression) toAst(get(node, 0)));
+            case LITERAL:
+                return new Ast.Expression.Literal(getConstant(node, 0));
+            case GROUP:
+                return new Ast.Expression.Group((Ast.Expression) toAst(get(node, 0)));
+            case BINARY:
+                return new Ast.Expression.Binary(getName(node, 0), (Ast.Expression) toAst(get(node, 1)), (Ast.Expression) toAst(get(node, 2)));
+            case ACCESS:
+                return new Ast.Expression.Access(expression(get(node, 0)), getName(node, 1));
+            case FUNCTION: {
+                List<Ast.Expression> arguments = new ArrayList<>();
+                for (int i = 0; i < size(node, 2); i++) {
+                    arguments.add((Ast.Expression) toAst(get(node, 2, i)));
+                }
+                return new Ast.Expression.Function(expression(get(node, 0)), getName(node, 1), arguments);
+            }
+            default:
+                throw new AssertionError("Unknown node kind " + getKind(node) + ".");
+        }
+    }
+
+    private Optional<Ast.Expression> expression(int node) {
+        return node < 0 ? Optional.empty() : Optional.of((Ast.Expression) toAst(node));
+    }
+
+    private List<String> names(int node, int operand) {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < size(node, operand); i++) {
+            names.add((String) constants[get(node, operand, i)]);
+        }
+        return names;
+    }
+
+    private List<Ast.Statement> statements(int node, int operand) {
+        List<Ast.Statement> statements = new ArrayList<>();
+        for (int i = 0; i < size(node, operand); i++) {
+            statements.add((Ast.Statement) toAst(get(node, operand, i)));
+        }
+        return statements;
+    }
+
+    /**
+     * Encodes the AST object and its children, returning its node id, or
+     * {@code -1} if it is null (such as a missing {@code FOR} increment).
+     */
+    private int encode(Ast ast) {
+        if (ast == null) {
+            return -1;
+        } else if (ast instanceof Ast.Source) {
+            Ast.Source source = (Ast.Source) ast;
+            int node = node(SOURCE, 2);
+            set(node, 0, encodeAll(source.getFields()));
+            set(node, 1, encodeAll(source.getMethods()));
+            return node;
+        } else if (ast instanceof Ast.Field) {
+            Ast.Field field = (Ast.Field) ast;
+            int node = node(FIELD, 4);
+            set(node, 0, constant(field.getName()));
+            set(node, 1, constant(field.getTypeName()));
+            set(node, 2, field.getConstant() ? 1 : 0);
+            set(node, 3, encode(field.getValue().orElse(null)));
+            return node;
+        } else if (ast instanceof Ast.Method) {
+            Ast.Method method = (Ast.Method) ast;
+            int node = node(METHOD, 5);
+            set(node, 0, constant(method.getName()));
+            set(node, 1, names(method.getParameters()));
+            set(node, 2, names(method.getParameterTypeNames()));
+            set(node, 3, constant(method.getReturnTypeName().orElse(null)));
+            set(node, 4, encodeAll(method.getStatements()));
+            return node;
+        } else if (ast instanceof Ast.Statement.Expression) {
+            int node = node(EXPRESSION, 1);
+            set(node, 0, encode(((Ast.Statement.Expression) ast).getExpression()));
+            return node;
+        } else if (ast instanceof Ast.Statement.Declaration) {
+            Ast.Statement.Declaration declaration = (Ast.Statement.Declaration) ast;
+            int node = node(DECLARATION, 3);
+            set(node, 0, constant(declaration.getName()));
+            set(node, 1, constant(declaration.getTypeName().orElse(null)));
+            set(node, 2, encode(declaration.getValue().orElse(null)));
+            return node;
+        } else if (ast instanceof Ast.Statement.Assignment) {
+            Ast.Statement.Assignment assignment = (Ast.Statement.Assignment) ast;
+            int node = node(ASSIGNMENT, 2);
+            set(node, 0, encode(assignment.getReceiver()));
+            set(node, 1, encode(assignment.getValue()));
+            return node;
+        } else if (ast instanceof Ast.Statement.If) {
+            Ast.Statement.If statement = (Ast.Statement.If) ast;
+            int node = node(IF, 3);
+            set(node, 0, encode(statement.getCondition()));
+            set(node, 1, encodeAll(statement.getThenStatements()));
+            set(node, 2, encodeAll(statement.getElseStatements()));
+            return node;
+        } else if (ast instanceof Ast.Statement.For) {
+            Ast.Statement.For statement = (Ast.Statement.For) ast;
+            int node = node(FOR, 4);
+            set(node, 0, encode(statement.getInitialization()));
+            set(node, 1, encode(statement.getCondition()));
+            set(node, 2, encode(statement.getIncrement()));
+            set(node, 3, encodeAll(statement.getStatements()));
+            return node;
+        } else if (ast instanceof Ast.Statement.While) {
+            Ast.Statement.While statement = (Ast.Statement.While) ast;
+            int node = node(WHILE, 2);
+            set(node, 0, encode(statement.getCondition()));
+            set(node, 1, encodeAll(statement.getStatements()));
+            return node;
+        } else if (ast instanceof Ast.Statement.Return) {
+            int node = node(RETURN, 1);
+            set(node, 0, encode(((Ast.Statement.Return) ast).getValue()));
+            return node;
+        } else if (ast instanceof Ast.Expression.Literal) {
+            int node = node(LITERAL, 1);
+            set(node, 0, literal(((Ast.Expression.Literal) ast).getLiteral()));
+            return node;
+        } else if (ast instanceof Ast.Expression.Group) {
+            int node = node(GROUP, 1);
+            set(node, 0, encode(((Ast.Expression.Group) ast).getExpression()));
+            return node;
+        } else if (ast instanceof Ast.Expression.Binary) {
+            Ast.Expression.Binary binary = (Ast.Expression.Binary) ast;
+            int node = node(BINARY, 3);
+            set(node, 0, constant(binary.getOperator()));
+            set(node, 1, encode(binary.getLeft()));
+            set(node, 2, encode(binary.getRight()));
+            return node;
+        } else if (ast instanceof Ast.Expression.Access) {
+            Ast.Expression.Access access = (Ast.Expression.Access) ast;
+            int node = node(ACCESS, 2);
+            set(node, 0, encode(access.getReceiver().orElse(null)));
+            set(node, 1, constant(access.getName()));
+            return node;
+        } else if (ast instanceof Ast.Expression.Function) {
+            Ast.Expression.Function function = (Ast.Expression.Function) ast;
+            int node = node(FUNCTION, 3);
+            set(node, 0, encode(function.getReceiver().orElse(null)));
+            set(node, 1, constant(function.getName()));
+            set(node, 2, encodeAll(function.getArguments()));
+            return node;
+        } else {
+            throw new AssertionError("Unimplemented AST type: " + ast.getClass().getName() + ".");
+        }
+    }
+
+    private int encodeAll(List<? extends Ast> asts) {
+        int list = list(asts.size());
+        for (int i = 0; i < asts.size(); i++) {
+            int node = encode(asts.get(i));
+            operands[list + 1 + i] = node;
+        }
+        return list;
+    }
+
+    private int names(List<String> names) {
+        int list = list(names.size());
+        for (int i = 0; i < names.size(); i++) {
+            operands[list + 1 + i] = constant(names.get(i));
+        }
+        return list;
+    }
+
+    private int node(int kind, int count) {
+        if (nodes == kinds.length) {
+            kinds = Arrays.copyOf(kinds, nodes * 2);
+            offsets = Arrays.copyOf(offsets, nodes * 2);
+        }
+        kinds[nodes] = (byte) kind;
+        offsets[nodes] = reserve(count);
+        return nodes++;
+    }
+
+    private void set(int node, int operand, int value) {
+        operands[offsets[node] + operand] = value;
+    }
+
+    private int list(int count) {
+        int list = reserve(count + 1);
+        operands[list] = count;
+        return list;
+    }
+
+    private int reserve(int count) {
+        if (size + count > operands.length) {
+            operands = Arrays.copyOf(operands, Math.max(operands.length * 2, size + count));
+        }
+        size += count;
+        return size - count;
+    }
+
+    /**
+     * Returns the pool index of a name, or {@code -1} if it is null.
+     */
+    private int constant(String name) {
+        return name == null ? -1 : literal(name);
+    }
+
+    /**
+     * Returns the pool index of a value, adding it if an equal value of the
+     * same class isn't already there. {@code NIL} is pooled as {@code null}.
+     */
+    private int literal(Object value) {
+        Integer index = pool.get(value);
+        if (index == null) {
+            if (constantCount == constants.length) {
+                constants = Arrays.copyOf(constants, constantCount * 2);
+            }
+            constants[constantCount] = value;
+            index = constantCount++;
+            pool.put(value, index);
+        }
+        return index;
+    }
+
+    private int check(int node) {
+        if (node < 0 || node >= nodes) {
+            throw new IndexOutOfBoundsException("Unknown node " + node + ".");
+        }
+        return node;
+    }
+
+}
@@ -32,6 +32,7 @@ public final class Generator implements Ast.Visitor<Void> {
 
     @Override
     public Void visit(Ast.Source ast) {
+        ast = Optimizer.optimize(ast);
         print("public class Main {\n");
         indent++;
 
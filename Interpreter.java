@@ -6,9 +6,12 @@ import java.math.BigInteger;
 import java.math.RoundingMode;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Stack;
 public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
     private Scope scope = new Scope(null);
+    private Frame frame = null;
+    private final List<Environment.Variable> fields = new ArrayList<>();
     public Interpreter(Scope parent) {
         scope = new Scope(parent);
         scope.defineFunction("print", 1, args -> {
@@ -23,7 +26,8 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
     }
     @Override
     public Environment.PlcObject visit(Ast.Source ast) {
-
+        ast = Optimizer.optimize(ast);
+        fields.clear();
         for (int i =0; i< ast.getFields().size(); i++){
             visit(ast.getFields().get(i));
         }
@@ -46,19 +50,22 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
             scope.defineVariable(ast.getName(), ast.getConstant(),
                     Environment.NIL);
         }
+        fields.add(scope.lookupVariable(ast.getName()));
         return Environment.NIL;
     }
     @Override
     public Environment.PlcObject visit(Ast.Method ast) {
+        if (ast.getFrameSize() >= 0) {
+            scope.defineFunction(ast.getName(), ast.getParameters().size(), args -> invoke(ast, args));
+            return Environment.NIL;
+        }
+        Scope definition = scope; // methods see the scope they're defined in, not the caller's
         scope.defineFunction(ast.getName(), ast.getParameters().size(),
                 args
                 -> {
             Scope global = scope; //copying scope
                 try {
-                scope = new Scope(scope);
-
-                global.defineVariable(ast.getName(), false, new
-                       Environment.PlcObject(scope, ast.getName()));
+                scope = new Scope(definition);
 
                 for (int i = 0; i < ast.getParameters().size(); i++)
                 {
@@ -91,6 +98,32 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
 
         return Environment.NIL;
     }
+    /**
+     * Calls a method the analyzer gave a frame size, keeping its parameters
+     * and variables in a frame instead of a scope.
+     */
+    private Environment.PlcObject invoke(Ast.Method ast, List<Environment.PlcObject> args) {
+        Frame caller = frame;
+        try {
+            frame = new Frame(null, ast.getFrameSize());
+            for (int i = 0; i < ast.getParameters().size(); i++) {
+                frame.values[i] = args.get(i);
+            }
+            for (int i = 0; i < ast.getStatements().size(); i++) {
+                visit(ast.getStatements().get(i));
+            }
+        } catch (Exception e) {
+            if (e.getCause() instanceof Return) {
+                return ((Return) e.getCause()).get();
+            }
+            if (e instanceof Return) {
+                return ((Return) e).get();
+            }
+        } finally {
+            frame = caller;
+        }
+        return Environment.NIL;
+    }
     @Override
     public Environment.PlcObject visit(Ast.Statement.Expression ast) {
         visit(ast.getExpression());
@@ -98,6 +131,10 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
     }
     @Override
     public Environment.PlcObject visit(Ast.Statement.Declaration ast) {
+        if (ast.getSlot() >= 0 && frame != null) {
+            frame.values[ast.getSlot()] = ast.getValue().isPresent() ? visit(ast.getValue().get()) : Environment.NIL;
+            return Environment.NIL;
+        }
         if (ast.getValue().isPresent()) {
             scope.defineVariable(ast.getName(), false,
                     visit(ast.getValue().get()));
@@ -110,7 +147,19 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
     @Override
     public Environment.PlcObject visit(Ast.Statement.Assignment ast) {
         try {
-            if (ast.getReceiver() instanceof Ast.Expression.Access) {
+            if (ast.getReceiver() instanceof Ast.Expression.Access && isAddressed((Ast.Expression.Access) ast.getReceiver())) {
+                Ast.Expression.Access access = (Ast.Expression.Access) ast.getReceiver();
+                Environment.PlcObject value = visit(ast.getValue());
+                Frame target = frame(access.getDepth());
+                if (target != null) {
+                    target.values[access.getSlot()] = value;
+                } else if (!fields.get(access.getSlot()).getConstant()) {
+                    fields.get(access.getSlot()).setValue(value);
+                } else {
+                    throw new RuntimeException("Cannot modify the contents of a constant variable");
+                }
+            }
+            else if (ast.getReceiver() instanceof Ast.Expression.Access) {
                 Environment.PlcObject receiver = visit(ast.getReceiver());
                 Environment.PlcObject value = visit(ast.getValue());
                 Environment.Variable var = null;
@@ -139,9 +188,14 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
     @Override
     public Environment.PlcObject visit(Ast.Statement.If ast) {
         Scope prev = scope;
+        Frame parent = frame;
         try {
             Environment.PlcObject condition = visit(ast.getCondition());
-            scope = new Scope(scope);
+            if (ast.getFrameSize() >= 0 && frame != null) {
+                frame = new Frame(frame, ast.getFrameSize());
+            } else {
+                scope = new Scope(scope);
+            }
             if (requireType(Boolean.class, condition).equals(true)){
             //    for (int i =0; i<ast.getThenStatements().size();i++){
                 //    visit(ast.getThenStatements().get(i));
@@ -159,6 +213,7 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
         }
         finally {
             scope = prev;
+            frame = parent;
         }
         return Environment.NIL;
     }
@@ -172,25 +227,47 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
 //execute
         if (ast.getInitialization() !=null)
             visit(ast.getInitialization());
-        while(requireType(Boolean.class, visit(ast.getCondition())).equals(true)){
-            ast.getStatements().forEach(this :: visit);
-            if (ast.getIncrement()!=null)
-                visit(ast.getIncrement());
+        Scope parent = scope;
+        Frame outer = frame;
+        try {
+            while(requireType(Boolean.class, visit(ast.getCondition())).equals(true)){
+                // like a while, each iteration runs the body in a new scope
+                if (ast.getFrameSize() >= 0 && outer != null) {
+                    frame = new Frame(outer, ast.getFrameSize());
+                } else {
+                    scope = new Scope(parent);
+                }
+                ast.getStatements().forEach(this :: visit);
+                scope = parent;
+                frame = outer;
+                if (ast.getIncrement()!=null)
+                    visit(ast.getIncrement());
+            }
+        } finally {
+            scope = parent;
+            frame = outer;
         }
         return Environment.NIL;
     }
     @Override
     public Environment.PlcObject visit(Ast.Statement.While ast) {
         Scope parent = scope;
+        Frame outer = frame;
         try {
             Ast.Expression condition = ast.getCondition();
             Environment.PlcObject cond = visit(condition);
 
             while (requireType(Boolean.class, visit(condition)) ){
-                scope = new Scope(scope);
+                if (ast.getFrameSize() >= 0 && outer != null) {
+                    frame = new Frame(outer, ast.getFrameSize());
+                } else {
+                    scope = new Scope(parent);
+                }
                 for (Ast.Expression.Statement statement : ast.getStatements()) {
                     visit(statement);
                 }
+                scope = parent;
+                frame = outer;
 
             }
         } catch (RuntimeException e) {
@@ -198,6 +275,7 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
         }
         finally{
             scope = parent;
+            frame = outer;
         }
         return Environment.NIL;
     }
@@ -210,6 +288,9 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
     }
     @Override
     public Environment.PlcObject visit(Ast.Expression.Literal ast) {
+        if (ast.getConstant() != null) {
+            return ast.getConstant();
+        }
         if (ast.getLiteral() ==null) {
             return Environment.NIL;
         }
@@ -414,8 +495,32 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
             Environment.PlcObject current_scope = visit(ast.getReceiver().get());
             return current_scope.getField(ast.getName()).getValue();
         }
+        if (isAddressed(ast)) {
+            Frame target = frame(ast.getDepth());
+            return target != null ? target.values[ast.getSlot()] : fields.get(ast.getSlot()).getValue();
+        }
         return scope.lookupVariable(ast.getName()).getValue();
     }
+    /**
+     * Whether the variable of the access can be found by its address, which
+     * is only the case inside a frame (since the analyzer counts the scopes
+     * of a method from the method's own one) or for a field.
+     */
+    private boolean isAddressed(Ast.Expression.Access ast) {
+        return ast.getDepth() >= 0 && !ast.getReceiver().isPresent()
+                && (frame != null || ast.getDepth() == 0 && ast.getSlot() < fields.size());
+    }
+    /**
+     * Returns the frame the given number of frames up from the current one,
+     * or null if that's the global scope.
+     */
+    private Frame frame(int depth) {
+        Frame target = frame;
+        for (int i = 0; i < depth && target != null; i++) {
+            target = target.parent;
+        }
+        return target;
+    }
     @Override
     public Environment.PlcObject visit(Ast.Expression.Function ast) {
         ArrayList<Environment.PlcObject> arguments = new ArrayList<Environment.PlcObject>();
@@ -446,6 +551,18 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
             throw new RuntimeException("Expected type " + type.getName() + ",received " + object.getValue().getClass().getName() + ".");
         }
     }
+    /**
+     * The variables of a method, if or while scope, stored by the slots the
+     * analyzer gave them.
+     */
+    private static final class Frame {
+        private final Frame parent;
+        private final Environment.PlcObject[] values;
+        private Frame(Frame parent, int size) {
+            this.parent = parent;
+            this.values = new Environment.PlcObject[size];
+        }
+    }
     /**
      * Exception class for returning values.
      */
@@ -1,7 +1,25 @@
 package plc.project;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.IntPredicate;
 
 /**
  * The lexer works through three main functions:
@@ -14,14 +32,82 @@ import java.util.List;
  * should throw a {@link ParseException} with an index at the invalid character.
  *
  * The {@link #peek(String...)} and {@link #match(String...)} functions are
- * helpers you need to use, they will make the implementation easier.
+ * helpers you need to use, they will make the implementation easier. The lex
+ * methods themselves use the single character {@link #peek(CharClass)} and
+ * {@link #match(CharClass)} overloads, which classify characters with the
+ * precomputed tables in {@link CharClass}.
  */
 public final class Lexer {
 
+    private static final int PARALLEL_CHUNK_SIZE = 1 << 16;
+
     private final CharStream chars;
+    private final SymbolTable symbols;
 
     public Lexer(String input) {
-        chars = new CharStream(input);
+        this(new CharStream(input));
+    }
+
+    /**
+     * Creates a lexer which reads its input incrementally from the reader, for
+     * use with {@link #tokens()} when the source is too large to hold as a
+     * single string.
+     */
+    public Lexer(Reader reader) {
+        this(new CharStream(reader));
+    }
+
+    /**
+     * Creates a lexer which reads UTF-8 encoded input from the channel, see
+     * {@link #Lexer(Reader)}.
+     */
+    public Lexer(ReadableByteChannel channel) {
+        this(Channels.newReader(channel, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Creates a lexer over a memory-mapped view of the file. The tokens refer
+     * back into the mapping rather than copying their literals, which are only
+     * created when {@link Token#getLiteral()} is called. Files which aren't
+     * plain ASCII are decoded as UTF-8 into a single buffer first.
+     */
+    public static Lexer map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("The file " + path + " is too large to be mapped.");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            for (int i = 0; i < buffer.limit(); i++) {
+                if (buffer.get(i) < 0) {
+                    return new Lexer(new CharStream(StandardCharsets.UTF_8.decode(buffer)));
+                }
+            }
+            return new Lexer(new CharStream(new AsciiSequence(buffer, 0, buffer.limit())));
+        }
+    }
+
+    /**
+     * Creates a lexer which interns identifiers into the given table, allowing
+     * several sources to share symbol ids.
+     */
+    public Lexer(String input, SymbolTable symbols) {
+        this(new CharStream(input), symbols);
+    }
+
+    private Lexer(CharStream chars) {
+        this(chars, new SymbolTable());
+    }
+
+    private Lexer(CharStream chars, SymbolTable symbols) {
+        this.chars = chars;
+        this.symbols = symbols;
+    }
+
+    /**
+     * Returns the table identifiers are interned into as they are lexed.
+     */
+    public SymbolTable getSymbols() {
+        return symbols;
     }
 
     /**
@@ -31,20 +117,209 @@ public final class Lexer {
 
     public List<Token> lex() {
         List<Token> tokens  = new ArrayList<>();
+        for (Token token = lexNext(); token != null; token = lexNext()) {
+            tokens.add(token);
+        }
+        return tokens;
+    }
+
+    /**
+     * Lexes the input after an edit, reusing the tokens from before the edit.
+     * The lexer must have been created with the edited input, and the edit
+     * replaced {@code removed} characters at {@code offset} with {@code
+     * inserted} new ones.
+     *
+     * Since the lexer never looks behind a token and only looks one character
+     * past its end, every old token ending before the edit is kept and lexing
+     * restarts after the last of them. Once a new token starts at the same
+     * place as a (shifted) old token after the edit, the rest of the input is
+     * unchanged and the remaining old tokens are reused with their indices
+     * shifted instead of being lexed again.
+     *
+     * The reused tokens keep their symbol ids, so the lexer should be created
+     * with {@link #Lexer(String, SymbolTable)} and the table of the lexer the
+     * previous tokens came from. With a new table, the ids of the reused and
+     * the newly lexed identifiers would be from different tables.
+     */
+    public List<Token> relex(List<Token> previous, int offset, int removed, int inserted) {
+        int delta = inserted - removed;
+        int low = 0;
+        int high = previous.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (previous.get(mid).getIndex() + previous.get(mid).getLength() < offset) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        CharSequence input = chars.getInput();
+        List<Token> tokens = new ArrayList<>(previous.size() + Math.max(delta, 0));
+        tokens.addAll(previous.subList(0, low));
+        chars.seek(low == 0 ? 0 : previous.get(low - 1).getIndex() + previous.get(low - 1).getLength());
+        int next = low;
+        for (Token token = lexNext(); token != null; token = lexNext()) {
+            if (token.getIndex() >= offset + inserted) {
+                while (next < previous.size() && previous.get(next).getIndex() + delta < token.getIndex()) {
+                    next++;
+                }
+                if (next < previous.size() && previous.get(next).getIndex() + delta == token.getIndex()) {
+                    for (int i = next; i < previous.size(); i++) {
+                        tokens.add(delta == 0 ? previous.get(i) : previous.get(i).withIndex(input, previous.get(i).getIndex() + delta));
+                    }
+                    return tokens;
+                }
+            }
+            tokens.add(token);
+        }
+        return tokens;
+    }
+
+    /**
+     * Lexes the input in the same way as {@link #lex()}, but stores the tokens
+     * in a {@link TokenBuffer} instead of keeping a {@link Token} for each.
+     * The char stream writes each token into the buffer as it's emitted, so
+     * no {@link Token} objects are created at all. This requires the input to
+     * be in memory, so it can't be used with a lexer created from a {@link
+     * Reader}.
+     */
+    public TokenBuffer lexBuffer() {
+        TokenBuffer buffer = new TokenBuffer(chars.getInput(), symbols);
+        chars.sink = buffer;
+        try {
+            while (skipWhitespace()) {
+                lexToken();
+            }
+        } finally {
+            chars.sink = null;
+        }
+        return buffer;
+    }
+
+    /**
+     * Lexes the input in the same way as {@link #lex()}, but splits it into
+     * chunks which are lexed in parallel on the pool.
+     *
+     * Chunks always end just after a newline. No token can contain a newline
+     * and the lexer looks at most one character ahead, so each chunk starts on
+     * a token boundary and lexes exactly as it would sequentially. Each chunk
+     * interns into its own {@link SymbolTable}; these are merged in order
+     * afterwards, giving the same symbol ids as a sequential lex. If several
+     * chunks fail, the exception from the first is thrown.
+     */
+    public List<Token> lexParallel(ForkJoinPool pool) {
+        CharSequence input = chars.getInput();
+        int size = Math.max(PARALLEL_CHUNK_SIZE, input.length() / (pool.getParallelism() * 4));
+        if (chars.index != 0 || input.length() <= size) {
+            return lex();
+        }
+        List<Integer> bounds = new ArrayList<>();
+        bounds.add(0);
+        for (int i = size; i < input.length(); i += size) {
+            while (i < input.length() && input.charAt(i - 1) != '\n') {
+                i++;
+            }
+            if (i < input.length()) {
+                bounds.add(i);
+            }
+        }
+        bounds.add(input.length());
+        List<SymbolTable> tables = new ArrayList<>();
+        List<ForkJoinTask<List<Token>>> tasks = new ArrayList<>();
+        for (int i = 0; i + 1 < bounds.size(); i++) {
+            SymbolTable table = i == 0 ? symbols : new SymbolTable();
+            Lexer lexer = new Lexer(new CharStream(input, bounds.get(i), bounds.get(i + 1)), table);
+            tables.add(table);
+            tasks.add(pool.submit(lexer::lex));
+        }
+        List<List<Token>> chunks = new ArrayList<>();
+        for (ForkJoinTask<List<Token>> task : tasks) {
+            chunks.add(task.join());
+        }
+        List<int[]> remaps = new ArrayList<>();
+        for (SymbolTable table : tables) {
+            int[] remap = new int[table.size()];
+            for (int id = 0; id < remap.length; id++) {
+                remap[id] = table == symbols ? id : symbols.intern(table.getName(id));
+            }
+            remaps.add(remap);
+        }
+        for (int i = 1; i < chunks.size(); i++) {
+            List<Token> chunk = chunks.get(i);
+            int[] remap = remaps.get(i);
+            tasks.set(i, pool.submit(() -> {
+                for (int j = 0; j < chunk.size(); j++) {
+                    Token token = chunk.get(j);
+                    int symbol = token.getSymbol() >= 0 ? remap[token.getSymbol()] : -1;
+                    if (symbol >= 0 && (symbol != token.getSymbol() || symbols.getName(symbol) != token.getLiteral())) {
+                        chunk.set(j, new Token(token.getType(), symbol, symbols.getName(symbol), token.getIndex()));
+                    }
+                }
+                return chunk;
+            }));
+        }
+        List<Token> tokens = new ArrayList<>(chunks.stream().mapToInt(List::size).sum());
+        tokens.addAll(chunks.get(0));
+        for (int i = 1; i < chunks.size(); i++) {
+            tokens.addAll(tasks.get(i).join());
+        }
+        chars.seek(input.length());
+        return tokens;
+    }
+
+    /**
+     * Returns the tokens of the input as they are lexed, one at a time, rather
+     * than building the whole list like {@link #lex()}. Combined with a lexer
+     * created from a {@link Reader} and {@link Parser#Parser(Iterator)}, this
+     * keeps memory use independent of the size of the input.
+     */
+    public Iterator<Token> tokens() {
+        return new Iterator<>() {
+
+            private Token next = lexNext();
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Token next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                Token token = next;
+                next = lexNext();
+                return token;
+            }
+
+        };
+    }
+
+    /**
+     * Skips any whitespace and lexes the next token, returning {@code null}
+     * once the end of the input is reached.
+     */
+    private Token lexNext() {
+        return skipWhitespace() ? lexToken() : null;
+    }
+
+    /**
+     * Skips any whitespace, returning whether there is a token after it.
+     */
+    private boolean skipWhitespace() {
         while(chars.has(0)){
 
-            if(peek("[\b]|\\r|\\n|\\t|\\s")){
-                chars.advance();
+            if(peek(CharClass.WHITESPACE)){
+                matchWhile(CharClass.WHITESPACE);
                 chars.skip();
             }
 
             else {
-                Token token = lexToken();
-                tokens.add(token);
+                return true;
             }
         }
-
-        return tokens;
+        return false;
     }
 
     /**
@@ -57,16 +332,16 @@ public final class Lexer {
      */
     public Token lexToken() {
 
-        if(peek("[A-Za-z_]")){
+        if(peek(CharClass.IDENTIFIER_START)){
           return lexIdentifier();
       }
-        if (peek("[0-9]")){
+        if (peek(CharClass.DIGIT)){
             return lexNumber();
         }
-        if(peek("[+-]")){
-            match("[+-]");
+        if(peek(CharClass.SIGN)){
+            match(CharClass.SIGN);
 
-            if (peek("[0-9]")){
+            if (peek(CharClass.DIGIT)){
                 return lexNumber();
 
             }
@@ -74,15 +349,15 @@ public final class Lexer {
 
         }
 
-      if(peek("'")){
-          match("'");
+      if(peek(CharClass.SINGLE_QUOTE)){
+          match(CharClass.SINGLE_QUOTE);
 
           return lexCharacter();
       }
-      if (peek("\"")){
+      if (peek(CharClass.DOUBLE_QUOTE)){
           return lexString();
         }
-      if(peek("\\\\")){
+      if(peek(CharClass.BACKSLASH)){
           lexEscape();
       }
         return lexOperator();
@@ -91,36 +366,32 @@ public final class Lexer {
     }
 
     public Token lexIdentifier() {
-        match("[A-Za-z_]");
+        match(CharClass.IDENTIFIER_START);
 
-        while(peek("[A-Za-z0-9_-]")){
-            match("[A-Za-z0-9_-]|");
-        }
-        return chars.emit(Token.Type.IDENTIFIER);
+        matchWhile(CharClass.IDENTIFIER_PART);
+        return chars.emit(Token.Type.IDENTIFIER, symbols);
 
     }
 
 
     public Token lexNumber() {
-        if (peek("0")) {
-            match("0");
-            if (peek("\\.")) {
+        if (peek(CharClass.ZERO)) {
+            match(CharClass.ZERO);
+            if (peek(CharClass.PERIOD)) {
                 return lexDecimal();
 
             }
-            else if(peek("[^0-9]"))  {
+            else if(peek(CharClass.NON_DIGIT))  {
                 return chars.emit(Token.Type.INTEGER);
             }
             else
                 throw new ParseException("Invalid character", chars.index);
 
         }
-        if (peek("[1-9]")) {
-            match("[1-9]");
-            while(peek("[0-9]")) {
-                match("[0-9]");
-            }
-            if(peek("\\.")){
+        if (peek(CharClass.NONZERO_DIGIT)) {
+            match(CharClass.NONZERO_DIGIT);
+            matchWhile(CharClass.DIGIT);
+            if(peek(CharClass.PERIOD)){
                 return lexDecimal();
             }
             return chars.emit(Token.Type.INTEGER);
@@ -133,13 +404,11 @@ public final class Lexer {
 
 
     public Token lexDecimal() {
-        if (peek("\\.")) {
-            match("\\.");
+        if (peek(CharClass.PERIOD)) {
+            match(CharClass.PERIOD);
 
-            if (peek("[0-9]")) {
-                while (peek("[0-9]")) {
-                    match("[0-9]");
-                }
+            if (peek(CharClass.DIGIT)) {
+                matchWhile(CharClass.DIGIT);
                 return chars.emit(Token.Type.DECIMAL);
             }
           throw new ParseException("Invalid character", chars.index);
@@ -150,13 +419,14 @@ public final class Lexer {
 
     public Token lexCharacter() {
 
-        if(peek("\\\\")) {
-            match("\\\\");
-            if (peek("[bnrt'\\\"]|(\\\\)")) {
-                match("[bnrt'\\\"]|(\\\\)");
-                if (peek("'")) {
-                    match("'");
-                    return chars.emit(Token.Type.CHARACTER);
+        if(peek(CharClass.BACKSLASH)) {
+            match(CharClass.BACKSLASH);
+            if (peek(CharClass.ESCAPE)) {
+                char value = unescape(chars.get(0));
+                match(CharClass.ESCAPE);
+                if (peek(CharClass.SINGLE_QUOTE)) {
+                    match(CharClass.SINGLE_QUOTE);
+                    return chars.emit(Token.Type.CHARACTER, String.valueOf(value));
                 } else
                     throw new ParseException("Invalid character", chars.index);
 
@@ -165,12 +435,13 @@ public final class Lexer {
         }
 
 
-        if(peek(".")){
+        if(peek(CharClass.ANY)){
 
-            match(".");
-            if(peek("'")){
-                match("'");
-                return chars.emit(Token.Type.CHARACTER);
+            char value = chars.get(0);
+            match(CharClass.ANY);
+            if(peek(CharClass.SINGLE_QUOTE)){
+                match(CharClass.SINGLE_QUOTE);
+                return chars.emit(Token.Type.CHARACTER, String.valueOf(value));
             }
             throw new ParseException("Invalid characters", chars.index);
         }
@@ -178,33 +449,31 @@ public final class Lexer {
     }
 
     public Token lexString() {
-        match("\\\"");
+        match(CharClass.DOUBLE_QUOTE);
+        StringBuilder value = new StringBuilder();
 
         while(true) {
-            if (peek("\\\"")){ //literal \"
-                match("\\\"");
-                return chars.emit(Token.Type.STRING);
+            if (peek(CharClass.DOUBLE_QUOTE)){ //literal \"
+                match(CharClass.DOUBLE_QUOTE);
+                return chars.emit(Token.Type.STRING, value.toString());
             }
-            if (peek("[\\n\\r]")){
+            if (peek(CharClass.LINE_BREAK)){
                 throw new ParseException("Invalid string", chars.index);
             }
 
-            if(peek("\\\\")){ // runtime "\\"
-                match("\\\\");
-                if(peek("[bnrt'\\\"]|(\\\\)")){
-                    match("[bnrt'\\\"]|(\\\\)");
+            if(peek(CharClass.BACKSLASH)){ // runtime "\\"
+                match(CharClass.BACKSLASH);
+                if(peek(CharClass.ESCAPE)){
+                    value.append(unescape(chars.get(0)));
+                    match(CharClass.ESCAPE);
                 }
                 else
                     throw new ParseException("Invalid characters", chars.index);
 
             }
 
-            else if (peek("\\b|\\n|\\r|\\t")) {
-                match("\\b|\\n|\\r|\\t");
-            }
-
-            else if (peek("[^\"\n\r\\\\]")){
-                match("[^\"\n\r\\\\]");
+            else if (peek(CharClass.STRING_CHARACTER)){
+                chars.appendPrevious(value, matchWhile(CharClass.STRING_CHARACTER));
             }
             else
                 break;
@@ -213,10 +482,10 @@ public final class Lexer {
     }
 
     public void lexEscape() {
-        match("\\\\");
+        match(CharClass.BACKSLASH);
 
-        if (peek("[bnrt'\"\\\\]")){
-            match("[bnrt'\"\\\\]");
+        if (peek(CharClass.ESCAPE)){
+            match(CharClass.ESCAPE);
         }
         else
             throw new ParseException("Invalid escape character", chars.index);
@@ -224,27 +493,60 @@ public final class Lexer {
     }
 
     public Token lexOperator() {
-        if (peek("\\.")){
-            match("\\.");
+        if (peek(CharClass.PERIOD)){
+            match(CharClass.PERIOD);
             return chars.emit(Token.Type.OPERATOR);
         }
 
-        if(peek("[<>!=]")){
-            match("[<>!=]");
-            if (peek("=")){
-                match("=");
+        if(peek(CharClass.COMPARISON)){
+            match(CharClass.COMPARISON);
+            if (peek(CharClass.EQUALS)){
+                match(CharClass.EQUALS);
                 return chars.emit(Token.Type.OPERATOR);
             }
 
             return chars.emit(Token.Type.OPERATOR);
         }
-        if(peek(".")){
-            match(".");
+        if(peek(CharClass.ANY)){
+            match(CharClass.ANY);
             return chars.emit(Token.Type.OPERATOR);
         }
        throw new ParseException("Invalid characters", chars.index);
     }
 
+    /**
+     * Returns the character an escape sequence stands for, given the character
+     * after the backslash. Escapes without a special meaning stand for the
+     * character itself, such as {@code \'} and {@code \\}.
+     */
+    public static char unescape(char c) {
+        switch (c) {
+            case 'n': return '\n';
+            case 'r': return '\r';
+            case 't': return '\t';
+            case 'f': return '\f';
+            default: return c;
+        }
+    }
+
+    /**
+     * Decodes the literal of a string or character token in a single pass,
+     * removing the quotes and replacing escape sequences using {@link
+     * #unescape(char)}.
+     */
+    public static String decode(CharSequence literal) {
+        StringBuilder builder = new StringBuilder(literal.length());
+        for (int i = 1; i < literal.length() - 1; i++) {
+            char c = literal.charAt(i);
+            if (c == '\\' && i + 1 < literal.length() - 1) {
+                builder.append(unescape(literal.charAt(++i)));
+            } else {
+                builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+
     /**
      * Returns true if the next sequence of characters match the given patterns,
      * which should be a regex. For example, {@code peek("a", "b", "c")} would
@@ -276,6 +578,173 @@ public final class Lexer {
         return false;
     }
 
+    /**
+     * Returns true if the next character belongs to the given class, using
+     * the class's lookup table instead of matching a regex.
+     */
+    public boolean peek(CharClass charClass) {
+        if (!chars.has(0)) {
+            return false;
+        }
+        return charClass.test(chars.get(0));
+    }
+
+    /**
+     * Returns true in the same way as {@link #peek(CharClass)}, but also
+     * advances the character stream past the matched character.
+     */
+    public boolean match(CharClass charClass) {
+        if (peek(charClass)) {
+            chars.advance();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Advances the character stream past every character matching the class,
+     * returning how many there were. The whole run is scanned by {@link
+     * CharStream#advanceWhile(CharClass)} in one loop, rather than going
+     * through {@link #match(CharClass)} for each character.
+     */
+    public int matchWhile(CharClass charClass) {
+        return chars.advanceWhile(charClass);
+    }
+
+    /**
+     * Finds where a run of characters of a class ends in an array of chars
+     * stored as shorts, used by {@link CharStream#advanceWhile(CharClass)} to
+     * check many characters at once. Only ASCII characters need to be
+     * matched; the char stream checks the character a scan stopped at itself.
+     */
+    interface RunScanner {
+
+        /**
+         * The scanner using the Vector API, or null if it wasn't built (it's
+         * compiled separately, from {@code vector/}) or the {@code
+         * jdk.incubator.vector} module isn't available.
+         */
+        RunScanner VECTOR = load();
+
+        /**
+         * Returns the index of the first character in {@code [from, to)}
+         * which is not an ASCII character of the class, or {@code to} if
+         * there isn't one.
+         */
+        int scan(short[] chars, int from, int to, CharClass charClass);
+
+        /**
+         * Loads {@code VectorScanner} by name, so the lexer builds and works
+         * (with its scalar loop) when the class or the module it needs is
+         * missing.
+         */
+        private static RunScanner load() {
+            try {
+                return (RunScanner) Class.forName("plc.project.VectorScanner").getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                return null;
+            }
+        }
+
+    }
+
+    /**
+     * The character classes used by the lexer. Each class has a lookup table
+     * for ASCII characters, so {@link #test(char)} doesn't allocate or touch
+     * {@code java.util.regex}. Characters outside of ASCII fall back to the
+     * class's predicate, which follows the default (non-unicode) semantics of
+     * the regex the class replaced (checked against {@link #peek(String...)}
+     * by {@code CharClassTest}).
+     */
+    public enum CharClass {
+
+        WHITESPACE(c -> c == '\b' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r' || c == ' '),
+        IDENTIFIER_START(c -> isLetter(c) || c == '_'),
+        IDENTIFIER_PART(c -> isLetter(c) || isDigit(c) || c == '_' || c == '-'),
+        DIGIT(c -> isDigit(c)),
+        NONZERO_DIGIT(c -> c >= '1' && c <= '9'),
+        NON_DIGIT(c -> !isDigit(c)),
+        ZERO(c -> c == '0'),
+        SIGN(c -> c == '+' || c == '-'),
+        PERIOD(c -> c == '.'),
+        EQUALS(c -> c == '='),
+        COMPARISON(c -> c == '<' || c == '>' || c == '!' || c == '='),
+        SINGLE_QUOTE(c -> c == '\''),
+        DOUBLE_QUOTE(c -> c == '"'),
+        BACKSLASH(c -> c == '\\'),
+        ESCAPE(c -> c == 'b' || c == 'n' || c == 'r' || c == 't' || c == '\'' || c == '"' || c == '\\'),
+        LINE_BREAK(c -> c == '\n' || c == '\r'),
+        STRING_CHARACTER(c -> c != '"' && c != '\n' && c != '\r' && c != '\\'),
+        ANY(c -> !isLineTerminator(c));
+
+        private final IntPredicate predicate;
+        private final boolean[] ascii = new boolean[128];
+
+        CharClass(IntPredicate predicate) {
+            this.predicate = predicate;
+            for (int c = 0; c < ascii.length; c++) {
+                ascii[c] = predicate.test(c);
+            }
+        }
+
+        public boolean test(char c) {
+            return c < 128 ? ascii[c] : predicate.test(c);
+        }
+
+        private static boolean isLetter(int c) {
+            return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z');
+        }
+
+        private static boolean isDigit(int c) {
+            return c >= '0' && c <= '9';
+        }
+
+        private static boolean isLineTerminator(int c) {
+            return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+        }
+
+    }
+
+    /**
+     * A read-only view of a range of ASCII bytes as characters, used to lex a
+     * mapped file without decoding it.
+     */
+    private static final class AsciiSequence implements CharSequence {
+
+        private final ByteBuffer bytes;
+        private final int start;
+        private final int end;
+
+        private AsciiSequence(ByteBuffer bytes, int start, int end) {
+            this.bytes = bytes;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public int length() {
+            return end - start;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) bytes.get(start + index);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new AsciiSequence(bytes, this.start + start, this.start + end);
+        }
+
+        @Override
+        public String toString() {
+            byte[] chars = new byte[end - start];
+            bytes.get(start, chars);
+            return new String(chars, StandardCharsets.US_ASCII);
+        }
+
+    }
+
     /**
      * A helper class maintaining the input string, current index of the char
      * stream, and the current length of the token being matched.
@@ -286,20 +755,89 @@ public final class Lexer {
      */
     public static final class CharStream {
 
-        private final String input;
+        private static final int BUFFER_SIZE = 8192;
+        private static final int WINDOW_SIZE = 1024;
+        private static final int VECTOR_THRESHOLD = 64;
+
+        private final CharSequence input;
+        private final Reader reader;
+        private char[] buffer;
+        private CharBuffer view;
+        private int offset = 0;
+        private int limit = 0;
         private int index = 0;
         private int length = 0;
+        private int end;
+
+        /**
+         * The buffer tokens are written into when lexing with {@link
+         * Lexer#lexBuffer()}, in which case the emit methods return null.
+         */
+        private TokenBuffer sink = null;
+
+        /**
+         * A copy of the characters in {@code [lanesStart, lanesEnd)} as shorts
+         * for {@link RunScanner#VECTOR}, which can only load arrays of shorts
+         * quickly.
+         */
+        private short[] lanes;
+        private int lanesStart = 0;
+        private int lanesEnd = 0;
+        /**
+         * The characters of an in-memory input being copied into {@link
+         * #lanes}, since a string's characters are copied out fastest in bulk.
+         */
+        private char[] window;
+
+        public CharStream(CharSequence input) {
+            this(input, 0, input.length());
+        }
 
-        public CharStream(String input) {
+        /**
+         * Creates a char stream over the range {@code [start, end)} of the
+         * input, with indices still relative to the start of the input.
+         */
+        public CharStream(CharSequence input, int start, int end) {
             this.input = input;
+            this.reader = null;
+            this.index = start;
+            this.end = end;
+        }
+
+        /**
+         * Creates a char stream which reads its input incrementally. Only the
+         * characters from the start of the current token onwards are kept, in
+         * a buffer which only grows if a single token doesn't fit in it.
+         */
+        public CharStream(Reader reader) {
+            this.input = null;
+            this.reader = reader;
+            this.buffer = new char[BUFFER_SIZE];
+            this.view = CharBuffer.wrap(buffer);
+        }
+
+        public CharSequence getInput() {
+            if (input == null) {
+                throw new IllegalStateException("The input is being read incrementally and isn't available in memory.");
+            }
+            return input;
         }
 
         public boolean has(int offset) {
-            return index + offset < input.length();
+            if (input != null) {
+                return index + offset < end;
+            }
+            return fill(index + offset);
         }
 
         public char get(int offset) {
-            return input.charAt(index + offset);
+            if (input != null) {
+                return input.charAt(index + offset);
+            }
+            if (!fill(index + offset)) {
+                throw new IndexOutOfBoundsException("Index " + (index + offset) + " is past the end of input.");
+            }
+            return buffer[index + offset - this.offset];
         }
 
         public void advance() {
@@ -311,10 +849,177 @@ public final class Lexer {
             length = 0;
         }
 
+        /**
+         * Advances past the run of characters matching the class, as in
+         * repeatedly calling {@link #advance()} while the next character
+         * matches, and returns the length of the run.
+         *
+         * If the Vector API is available, the rest of a run longer than
+         * {@link #VECTOR_THRESHOLD} characters (which most identifiers and
+         * numbers aren't, and copying them for a vector only slows them down,
+         * see {@code LexerBenchmark}) is scanned by {@link RunScanner#VECTOR}
+         * in a copy of the next characters. Any non-ASCII character it stops
+         * at is checked here before scanning on from the next one.
+         */
+        public int advanceWhile(CharClass charClass) {
+            int start = index;
+            RunScanner scanner = RunScanner.VECTOR;
+            while (input != null ? index < end : fill(index)) {
+                if (scanner != null && index - start >= VECTOR_THRESHOLD) {
+                    if (index < lanesStart || index >= lanesEnd) {
+                        copyLanes(index);
+                    }
+                    // the length has to stay current, as fill() keeps the token by it
+                    int stop = lanesStart + scanner.scan(lanes, index - lanesStart, lanesEnd - lanesStart, charClass);
+                    length += stop - index;
+                    index = stop;
+                    if (index == lanesEnd) {
+                        continue;
+                    }
+                }
+                if (!charClass.test(input != null ? input.charAt(index) : buffer[index - offset])) {
+                    break;
+                }
+                advance();
+            }
+            return index - start;
+        }
+
+        /**
+         * Copies up to {@link #WINDOW_SIZE} characters from the given index
+         * into {@link #lanes}, stopping at the end of the input or (when
+         * reading incrementally) of the buffer.
+         */
+        private void copyLanes(int from) {
+            if (lanes == null) {
+                lanes = new short[WINDOW_SIZE];
+            }
+            char[] chars = buffer;
+            int base = offset;
+            int to;
+            if (input != null) {
+                to = Math.min(end, from + WINDOW_SIZE);
+                if (window == null) {
+                    window = new char[WINDOW_SIZE];
+                }
+                chars = window;
+                base = from;
+                if (input instanceof String) {
+                    ((String) input).getChars(from, to, window, 0);
+                } else {
+                    for (int i = from; i < to; i++) {
+                        window[i - from] = input.charAt(i);
+                    }
+                }
+            } else {
+                to = Math.min(offset + limit, from + WINDOW_SIZE);
+            }
+            for (int i = from; i < to; i++) {
+                lanes[i - from] = (short) chars[i - base];
+            }
+            lanesStart = from;
+            lanesEnd = to;
+        }
+
+        /**
+         * Moves the stream to the given index, discarding the current token.
+         * This requires the input to be in memory.
+         */
+        public void seek(int index) {
+            getInput();
+            this.index = index;
+            this.length = 0;
+        }
+
         public Token emit(Token.Type type) {
             int start = index - length;
             skip();
-            return new Token(type, input.substring(start, index), start);
+            if (sink != null) {
+                sink.add(type, start, index - start, -1);
+                return null;
+            }
+            if (input != null) {
+                return new Token(type, input, start, index - start);
+            }
+            return new Token(type, new String(buffer, start - offset, index - start), start);
+        }
+
+        /**
+         * Emits the current token with the decoded value of a string or
+         * character literal, see {@link Token#getValue()}.
+         */
+        public Token emit(Token.Type type, String value) {
+            int start = index - length;
+            skip();
+            if (sink != null) {
+                sink.add(type, start, index - start, -1);
+                return null;
+            }
+            if (input != null) {
+                return new Token(type, input, null, start, index - start, -1, value);
+            }
+            return new Token(type, null, new String(buffer, start - offset, index - start), start, index - start, -1, value);
+        }
+
+        /**
+         * Appends the last {@code count} characters of the current token to
+         * the builder.
+         */
+        public void appendPrevious(StringBuilder builder, int count) {
+            if (input != null) {
+                builder.append(input, index - count, index);
+            } else {
+                builder.append(buffer, index - count - offset, count);
+            }
+        }
+
+        /**
+         * Emits the current token after interning it, so the token's literal
+         * is the name of the symbol and isn't copied again for each occurrence.
+         */
+        public Token emit(Token.Type type, SymbolTable symbols) {
+            int start = index - length;
+            skip();
+            int symbol = input != null
+                    ? symbols.intern(input, start, index - start)
+                    : symbols.intern(view, start - offset, index - start);
+            if (sink != null) {
+                sink.add(type, start, index - start, symbol);
+                return null;
+            }
+            return new Token(type, symbol, symbols.getName(symbol), start);
+        }
+
+        /**
+         * Reads from the underlying reader until the character at the given
+         * absolute position is buffered, returning false if the input ends
+         * first. Characters before the start of the current token are dropped
+         * to make room.
+         */
+        private boolean fill(int position) {
+            try {
+                while (position >= offset + limit) {
+                    if (limit == buffer.length) {
+                        int discard = index - length - offset;
+                        if (discard > 0) {
+                            System.arraycopy(buffer, discard, buffer, 0, limit - discard);
+                            offset += discard;
+                            limit -= discard;
+                        } else {
+                            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                            view = CharBuffer.wrap(buffer);
+                        }
+                    }
+                    int read = reader.read(buffer, limit, buffer.length - limit);
+                    if (read < 0) {
+                        return false;
+                    }
+                    limit += read;
+                }
+                return true;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
         }
 
     }
@@ -0,0 +1,411 @@
+package plc.project;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Simplifies an analyzed source before it's run by the {@link Interpreter} or
+ * turned into Java by the {@link Generator} (both through {@link
+ * #optimize(Ast.Source)}). Binary expressions with literal
+ * operands are folded into a literal, accesses to constant fields whose
+ * initializer is a literal are replaced by that literal, and ifs whose
+ * condition is a constant only keep the branch which runs.
+ *
+ * The pass returns a new tree and leaves the one it's given alone. Nodes are
+ * only rebuilt when something under them changed (copying the annotations
+ * from the analyzer), so unchanged subtrees are shared with the original.
+ *
+ * Folding has to give the same result in both back ends, so it's limited to
+ * the operators where the interpreter and the generated Java agree: integer
+ * arithmetic and comparisons within the range of an int, integer and boolean
+ * equality, and string concatenation of non-decimal values. Everything else
+ * (decimals, AND, OR and !=) is left for the back end to evaluate.
+ */
+public final class Optimizer implements Ast.Visitor<Ast> {
+
+    private static final BigInteger MIN_INT = BigInteger.valueOf(Integer.MIN_VALUE);
+    private static final BigInteger MAX_INT = BigInteger.valueOf(Integer.MAX_VALUE);
+
+    private final ConstantPool constants;
+    private final Interpreter interpreter = new Interpreter(new Scope(null));
+    private final Map<Environment.Variable, Ast.Expression.Literal> constantFields = new IdentityHashMap<>();
+
+    /**
+     * The number of scopes around the current node in the original tree (the
+     * scope of a method being 1), and the levels of those whose if statement
+     * was replaced by its statements. An access through a removed scope has
+     * to go up one less frame.
+     */
+    private int level = 0;
+    private final List<Integer> removed = new ArrayList<>();
+
+    public Optimizer(ConstantPool constants) {
+        this.constants = constants;
+    }
+
+    /**
+     * Optimizes the source if it has been analyzed, which the pass needs the
+     * types of, and otherwise returns it unchanged. The {@link Interpreter}
+     * and {@link Generator} call this before running or generating a source.
+     */
+    public static Ast.Source optimize(Ast.Source source) {
+        if (source.getMethods().isEmpty()) {
+            return source;
+        }
+        for (Ast.Method method : source.getMethods()) {
+            if (method.getFrameSize() < 0) {
+                return source;
+            }
+        }
+        return new Optimizer(new ConstantPool()).visit(source);
+    }
+
+    @Override
+    public Ast.Source visit(Ast.Source ast) {
+        constantFields.clear();
+        List<Ast.Field> fields = new ArrayList<>();
+        List<Ast.Method> methods = new ArrayList<>();
+        boolean changed = false;
+        for (Ast.Field field : ast.getFields()) {
+            fields.add(visit(field));
+            changed |= fields.get(fields.size() - 1) != field;
+        }
+        for (Ast.Method method : ast.getMethods()) {
+            methods.add(visit(method));
+            changed |= methods.get(methods.size() - 1) != method;
+        }
+        return changed ? new Ast.Source(fields, methods) : ast;
+    }
+
+    @Override
+    public Ast.Field visit(Ast.Field ast) {
+        Ast.Field result = ast;
+        if (ast.getValue().isPresent()) {
+            Ast.Expression value = (Ast.Expression) visit(ast.getValue().get());
+            if (value != ast.getValue().get()) {
+                result = new Ast.Field(ast.getName(), ast.getTypeName(), ast.getConstant(), Optional.of(value));
+                result.setVariable(ast.getVariable());
+            }
+            if (ast.getConstant() && value instanceof Ast.Expression.Literal
+                    && value.getType() == ast.getVariable().getType()) {
+                constantFields.put(ast.getVariable(), (Ast.Expression.Literal) value);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Ast.Method visit(Ast.Method ast) {
+        level = 1;
+        List<Ast.Statement> statements = statements(ast.getStatements());
+        level = 0;
+        if (statements == ast.getStatements()) {
+            return ast;
+        }
+        Ast.Method method = new Ast.Method(ast.getName(), ast.getParameters(), ast.getParameterTypeNames(), ast.getReturnTypeName(), statements);
+        method.setFunction(ast.getFunction());
+        method.setFrameSize(ast.getFrameSize());
+        return method;
+    }
+
+    @Override
+    public Ast.Statement visit(Ast.Statement.Expression ast) {
+        Ast.Expression expression = (Ast.Expression) visit(ast.getExpression());
+        return expression == ast.getExpression() ? ast : new Ast.Statement.Expression(expression);
+    }
+
+    @Override
+    public Ast.Statement visit(Ast.Statement.Declaration ast) {
+        if (!ast.getValue().isPresent()) {
+            return ast;
+        }
+        Ast.Expression value = (Ast.Expression) visit(ast.getValue().get());
+        if (value == ast.getValue().get()) {
+            return ast;
+        }
+        Ast.Statement.Declaration declaration = new Ast.Statement.Declaration(ast.getName(), ast.getTypeName(), Optional.of(value));
+        declaration.setVariable(ast.getVariable());
+        declaration.setSlot(ast.getSlot());
+        return declaration;
+    }
+
+    @Override
+    public Ast.Statement visit(Ast.Statement.Assignment ast) {
+        // the receiver is assigned to, so it can't be replaced by a constant
+        Ast.Expression receiver = ast.getReceiver() instanceof Ast.Expression.Access
+                ? access((Ast.Expression.Access) ast.getReceiver())
+                : (Ast.Expression) visit(ast.getReceiver());
+        Ast.Expression value = (Ast.Expression) visit(ast.getValue());
+        if (receiver == ast.getReceiver() && value == ast.getValue()) {
+            return ast;
+        }
+        return new Ast.Statement.Assignment(receiver, value);
+    }
+
+    @Override
+    public Ast.Statement visit(Ast.Statement.If ast) {
+        return branch(ast, (Ast.Expression) visit(ast.getCondition()));
+    }
+
+    @Override
+    public Ast.Statement visit(Ast.Statement.For ast) {
+        Ast.Statement initialization = ast.getInitialization() == null ? null : (Ast.Statement) visit(ast.getInitialization());
+        Ast.Expression condition = (Ast.Expression) visit(ast.getCondition());
+        Ast.Statement increment = ast.getIncrement() == null ? null : (Ast.Statement) visit(ast.getIncrement());
+        level++;
+        List<Ast.Statement> statements = statements(ast.getStatements());
+        level--;
+        if (initialization == ast.getInitialization() && condition == ast.getCondition()
+                && increment == ast.getIncrement() && statements == ast.getStatements()) {
+            return ast;
+        }
+        Ast.Statement.For result = new Ast.Statement.For(initialization, condition, increment, statements);
+        result.setFrameSize(ast.getFrameSize());
+        return result;
+    }
+
+    @Override
+    public Ast.Statement visit(Ast.Statement.While ast) {
+        Ast.Expression condition = (Ast.Expression) visit(ast.getCondition());
+        level++;
+        List<Ast.Statement> statements = statements(ast.getStatements());
+        level--;
+        if (condition == ast.getCondition() && statements == ast.getStatements()) {
+            return ast;
+        }
+        Ast.Statement.While result = new Ast.Statement.While(condition, statements);
+        result.setFrameSize(ast.getFrameSize());
+        return result;
+    }
+
+    @Override
+    public Ast.Statement visit(Ast.Statement.Return ast) {
+        Ast.Expression value = (Ast.Expression) visit(ast.getValue());
+        return value == ast.getValue() ? ast : new Ast.Statement.Return(value);
+    }
+
+    @Override
+    public Ast.Expression visit(Ast.Expression.Literal ast) {
+        return ast;
+    }
+
+    @Override
+    public Ast.Expression visit(Ast.Expression.Group ast) {
+        Ast.Expression expression = (Ast.Expression) visit(ast.getExpression());
+        if (expression instanceof Ast.Expression.Literal) {
+            return expression;
+        } else if (expression == ast.getExpression()) {
+            return ast;
+        }
+        Ast.Expression.Group group = new Ast.Expression.Group(expression);
+        group.setType(ast.getType());
+        return group;
+    }
+
+    @Override
+    public Ast.Expression visit(Ast.Expression.Binary ast) {
+        Ast.Expression left = (Ast.Expression) visit(ast.getLeft());
+        Ast.Expression right = (Ast.Expression) visit(ast.getRight());
+        Ast.Expression.Binary binary = ast;
+        if (left != ast.getLeft() || right != ast.getRight()) {
+            binary = new Ast.Expression.Binary(ast.getOperator(), left, right);
+            binary.setType(ast.getType());
+        }
+        if (left instanceof Ast.Expression.Literal && right instanceof Ast.Expression.Literal
+                && isFoldable(ast.getOperator(), ((Ast.Expression.Literal) left).getLiteral(), ((Ast.Expression.Literal) right).getLiteral())) {
+            Object value;
+            try {
+                value = interpreter.visit(binary).getValue();
+            } catch (RuntimeException e) {
+                return binary; // fails at runtime (such as dividing by zero), so it's left to fail there
+            }
+            if (!(value instanceof BigInteger) || isInt(value)) {
+                return literal(constants.intern(value));
+            }
+        }
+        return binary;
+    }
+
+    @Override
+    public Ast.Expression visit(Ast.Expression.Access ast) {
+        if (!ast.getReceiver().isPresent() && constantFields.containsKey(ast.getVariable())) {
+            return literal(constants.intern(constantFields.get(ast.getVariable()).getLiteral()));
+        }
+        return access(ast);
+    }
+
+    @Override
+    public Ast.Expression visit(Ast.Expression.Function ast) {
+        Optional<Ast.Expression> receiver = ast.getReceiver().map(expression -> (Ast.Expression) visit(expression));
+        List<Ast.Expression> arguments = new ArrayList<>();
+        boolean changed = receiver.isPresent() && receiver.get() != ast.getReceiver().get();
+        for (Ast.Expression argument : ast.getArguments()) {
+            arguments.add((Ast.Expression) visit(argument));
+            changed |= arguments.get(arguments.size() - 1) != argument;
+        }
+        if (!changed) {
+            return ast;
+        }
+        Ast.Expression.Function function = new Ast.Expression.Function(receiver, ast.getName(), arguments);
+        function.setFunction(ast.getFunction());
+        return function;
+    }
+
+    /**
+     * Optimizes a list of statements, replacing an if with a constant
+     * condition by the statements of the branch which runs when it doesn't
+     * need a scope of its own. Returns the same list if nothing changed.
+     */
+    private List<Ast.Statement> statements(List<Ast.Statement> statements) {
+        List<Ast.Statement> result = new ArrayList<>();
+        boolean changed = false;
+        for (Ast.Statement statement : statements) {
+            Ast.Statement optimized;
+            if (statement instanceof Ast.Statement.If) {
+                Ast.Statement.If ast = (Ast.Statement.If) statement;
+                Ast.Expression condition = (Ast.Expression) visit(ast.getCondition());
+                List<Ast.Statement> live = live(ast, condition);
+                if (live != null && (live.isEmpty() || isFlat(live))) {
+                    level++;
+                    removed.add(level);
+                    result.addAll(statements(live));
+                    removed.remove(removed.size() - 1);
+                    level--;
+                    changed = true;
+                    continue;
+                }
+                optimized = branch(ast, condition);
+            } else {
+                optimized = (Ast.Statement) visit(statement);
+            }
+            changed |= optimized != statement;
+            result.add(optimized);
+        }
+        return changed ? result : statements;
+    }
+
+    /**
+     * Returns the statements of the branch of the if which runs, or null if
+     * the condition isn't a constant.
+     */
+    private static List<Ast.Statement> live(Ast.Statement.If ast, Ast.Expression condition) {
+        if (!(condition instanceof Ast.Expression.Literal) || !(((Ast.Expression.Literal) condition).getLiteral() instanceof Boolean)) {
+            return null;
+        }
+        return (Boolean) ((Ast.Expression.Literal) condition).getLiteral() ? ast.getThenStatements() : ast.getElseStatements();
+    }
+
+    /**
+     * Optimizes the branches of an if with the already optimized condition.
+     * If the condition is a constant, the branch which runs is kept as the
+     * only branch of an if which is always true.
+     */
+    private Ast.Statement branch(Ast.Statement.If ast, Ast.Expression condition) {
+        List<Ast.Statement> live = live(ast, condition);
+        List<Ast.Statement> thenStatements;
+        List<Ast.Statement> elseStatements;
+        level++;
+        if (live != null) {
+            condition = literal(constants.intern(true));
+            thenStatements = statements(live);
+            elseStatements = new ArrayList<>();
+        } else {
+            thenStatements = statements(ast.getThenStatements());
+            elseStatements = statements(ast.getElseStatements());
+        }
+        level--;
+        if (condition == ast.getCondition() && thenStatements == ast.getThenStatements() && elseStatements == ast.getElseStatements()) {
+            return ast;
+        }
+        Ast.Statement.If result = new Ast.Statement.If(condition, thenStatements, elseStatements);
+        result.setFrameSize(ast.getFrameSize());
+        return result;
+    }
+
+    /**
+     * Whether the statements can run in the enclosing scope instead of their
+     * own. They can't declare anything (which would need a slot there), and
+     * can't return, since Java rejects statements after a return which isn't
+     * nested in an if.
+     */
+    private static boolean isFlat(List<Ast.Statement> statements) {
+        for (Ast.Statement statement : statements) {
+            if (statement instanceof Ast.Statement.Declaration || statement instanceof Ast.Statement.Return) {
+                return false;
+            } else if (statement instanceof Ast.Statement.For) {
+                // the body has a scope of its own, but the initialization doesn't
+                Ast.Statement initialization = ((Ast.Statement.For) statement).getInitialization();
+                if (initialization != null && !isFlat(Collections.singletonList(initialization))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the access with its receiver optimized and its address moved
+     * past the scopes which were removed.
+     */
+    private Ast.Expression.Access access(Ast.Expression.Access ast) {
+        Optional<Ast.Expression> receiver = ast.getReceiver().map(expression -> (Ast.Expression) visit(expression));
+        int depth = ast.getDepth();
+        for (int scope : removed) {
+            if (ast.getDepth() >= 0 && scope > level - ast.getDepth()) {
+                depth--;
+            }
+        }
+        if (depth == ast.getDepth() && (!receiver.isPresent() || receiver.get() == ast.getReceiver().get())) {
+            return ast;
+        }
+        Ast.Expression.Access access = new Ast.Expression.Access(receiver, ast.getName());
+        access.setVariable(ast.getVariable());
+        access.setAddress(depth, ast.getSlot());
+        return access;
+    }
+
+    private static Ast.Expression.Literal literal(Environment.PlcObject constant) {
+        Ast.Expression.Literal literal = Ast.Expression.Literal.pooled(constant);
+        Object value = literal.getLiteral();
+        literal.setType(value instanceof BigInteger ? Environment.Type.INTEGER
+                : value instanceof Boolean ? Environment.Type.BOOLEAN
+                : value instanceof String ? Environment.Type.STRING
+                : value instanceof Character ? Environment.Type.CHARACTER
+                : value == null ? Environment.Type.NIL
+                : Environment.Type.DECIMAL);
+        return literal;
+    }
+
+    private static boolean isFoldable(String operator, Object left, Object right) {
+        switch (operator) {
+            case "+":
+                if (left instanceof String || right instanceof String) {
+                    return !(left instanceof BigDecimal) && !(right instanceof BigDecimal) && left != null && right != null;
+                }
+                return isInt(left) && isInt(right);
+            case "-":
+            case "*":
+            case "/":
+            case "<":
+            case ">":
+            case "<=":
+            case ">=":
+                return isInt(left) && isInt(right);
+            case "==":
+                return isInt(left) && isInt(right) || left instanceof Boolean && right instanceof Boolean;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isInt(Object value) {
+        return value instanceof BigInteger && ((BigInteger) value).compareTo(MIN_INT) >= 0 && ((BigInteger) value).compareTo(MAX_INT) <= 0;
+    }
+
+}
@@ -9,6 +9,16 @@ public final class ParseException extends RuntimeException {
         this.index = index;
     }
 
+    /**
+     * Creates an exception which only captures a stack trace if {@code
+     * stackTrace} is true, for errors which are collected as diagnostics
+     * instead of being reported from where they were thrown.
+     */
+    public ParseException(String message, int index, boolean stackTrace) {
+        super(message, null, false, stackTrace);
+        this.index = index;
+    }
+
     public int getIndex() {
         return index;
     }
@@ -4,8 +4,11 @@ import java.math.BigDecimal;
 import java.math.BigInteger;
 //import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.stream.Stream;
 
 /**
@@ -14,8 +17,9 @@ import java.util.stream.Stream;
  * Tree (AST).
  *
  * The parser has a similar architecture to the lexer, just with {@link Token}s
- * instead of characters. As before, {@link #peek(Object...)} and {@link
- * #match(Object...)} are helpers to make the implementation easier.
+ * instead of characters. As before, {@link #peek(Token.Type)} and {@link
+ * #match(Token.Type)} (with their overloads) are helpers to make the
+ * implementation easier.
  *
  * This type of parser is called <em>recursive descent</em>. Each rule in our
  * grammar will have it's own function, and reference to other rules correspond
@@ -23,7 +27,17 @@ import java.util.stream.Stream;
  */
 public final class Parser {
 
+    private static final int LOGICAL = 1;
+    private static final int EQUALITY = 2;
+    private static final int ADDITIVE = 3;
+    private static final int MULTIPLICATIVE = 4;
+
     private final TokenStream tokens;
+    private boolean lazy = false;
+    private boolean recovering = false;
+    private final List<ParseException> diagnostics = new ArrayList<>();
+    private AstPositions positions = null;
+    private ConstantPool constants = new ConstantPool();
 
     public Parser(List<Token> tokens) {
         this.tokens = new TokenStream(tokens);
@@ -32,26 +46,475 @@ public final class Parser {
          */
     }
 
-    public Ast.Source parseSource() throws ParseException {
+    /**
+     * Creates a parser which consumes tokens on demand, such as from {@link
+     * Lexer#tokens()}, instead of requiring the full token list up front.
+     */
+    public Parser(Iterator<Token> tokens) {
+        this.tokens = new TokenStream(tokens);
+    }
+
+    /**
+     * Creates a parser which reads tokens directly from the buffer produced by
+     * {@link Lexer#lexBuffer()}.
+     */
+    public Parser(TokenBuffer tokens) {
+        this.tokens = new TokenStream(tokens);
+    }
 
+    private Parser(TokenStream tokens) {
+        this.tokens = tokens;
+    }
 
+    public Ast.Source parseSource() throws ParseException {
+
+            int start = tokens.index;
             List<Ast.Field> fields = new ArrayList<>();
 
             List<Ast.Method> methods = new ArrayList<>();
 
-            while (peek("LET")) {
+            while (peek(SymbolTable.LET)) {
                 fields.add(parseField());
             }
-            while (peek("DEF")) {
+            while (peek(SymbolTable.DEF)) {
                 methods.add(parseMethod());
             }
             if (tokens.has(0)) {
-                throw new ParseException("Invalid syntax", handleIndex());
+                throw error("Invalid syntax", handleIndex());
+            }
+            return record(new Ast.Source(fields, methods), start);
+
+
+
+    }
+
+    /**
+     * Parses the {@code source} rule in the same way as {@link #parseSource()},
+     * but parses the methods in parallel on the pool.
+     *
+     * After the fields, the tokens are pre-scanned for the range of each
+     * top-level method: from {@code DEF} to the {@code END} which closes it,
+     * counting each {@code DO} and {@code FOR} as opening a block. Each range
+     * is parsed by its own parser, which can't see past the end of the range.
+     * A parser which never tried to look past its range and consumed all of it
+     * produced exactly what {@link #parseMethod()} would have sequentially. If
+     * any range doesn't meet that (including any parse errors), the source is
+     * parsed sequentially instead, so the result and errors are always the
+     * same as {@link #parseSource()}.
+     */
+    public Ast.Source parseSourceParallel(ForkJoinPool pool) throws ParseException {
+        if (tokens.source != null) {
+            return parseSource();
+        }
+        int start = tokens.index;
+        List<Ast.Field> fields = new ArrayList<>();
+        while (peek(SymbolTable.LET)) {
+            fields.add(parseField());
+        }
+        List<TokenStream> ranges = new ArrayList<>();
+        int index = tokens.index;
+        while (index < tokens.size() && tokens.getSymbol(index - tokens.index) == SymbolTable.DEF) {
+            int end = blockEnd(index + 1, 0);
+            end = end < 0 ? tokens.size() : end + 1;
+            ranges.add(tokens.range(index, end));
+            index = end;
+        }
+        List<Parser> parsers = new ArrayList<>();
+        List<ForkJoinTask<Ast.Method>> tasks = new ArrayList<>();
+        for (TokenStream range : ranges) {
+            Parser parser = new Parser(range);
+            parser.positions = positions != null ? new AstPositions() : null;
+            parser.constants = constants;
+            parsers.add(parser);
+            tasks.add(pool.submit(parser::parseMethod));
+        }
+        List<Ast.Method> methods = new ArrayList<>();
+        try {
+            for (int i = 0; i < tasks.size(); i++) {
+                methods.add(tasks.get(i).join());
+                if (ranges.get(i).overrun || ranges.get(i).has(0)) {
+                    throw new IllegalStateException("The method range was not parsed exactly.");
+                }
+            }
+        } catch (RuntimeException e) {
+            tokens.index = start;
+            return parseSource();
+        }
+        tokens.index = index;
+        if (tokens.has(0)) {
+            throw error("Invalid syntax", handleIndex());
+        }
+        if (positions != null) {
+            for (Parser parser : parsers) {
+                positions.putAll(parser.positions);
+            }
+        }
+        return record(new Ast.Source(fields, methods), start);
+    }
+
+    /**
+     * Parses the {@code source} rule in the same way as {@link #parseSource()},
+     * but only parses the signature of each method. The statements are parsed
+     * from the method's tokens the first time {@link Ast.Method#getStatements()}
+     * is called, so any syntax errors in a method body are only reported then.
+     *
+     * The end of each body is found by counting {@code DO} and {@code FOR} as
+     * opening a block closed by {@code END}. Since keywords can also be parsed
+     * as identifiers, a body is only deferred if its {@code END} is followed by
+     * another method or the end of the input; otherwise the method is parsed
+     * eagerly. Streaming parsers, which can't go back to the tokens later,
+     * parse every method eagerly.
+     */
+    public Ast.Source parseSourceLazy() throws ParseException {
+        lazy = true;
+        try {
+            return parseSource();
+        } finally {
+            lazy = false;
+        }
+    }
+
+    /**
+     * Parses the {@code source} rule after an edit, reusing the fields and
+     * methods of the previous source which the edit didn't touch. The parser
+     * must have been created with the tokens of the edited input, and the edit
+     * replaced {@code removed} characters at {@code offset} with {@code
+     * inserted} new ones (as in {@link Lexer#relex(List, int, int, int)}).
+     *
+     * The declarations of the previous source are matched up with ranges of
+     * the previous tokens by scanning for {@code LET ... ;} and {@code DEF ...
+     * END}. Declarations ending before the edit are kept, as are those from
+     * the point after the edit where the old and new tokens line up again,
+     * and only the tokens in between are parsed. Whenever this can't be done
+     * exactly (the previous source doesn't match its tokens, the new
+     * declarations don't fit between the kept ones, or there are errors) the
+     * whole source is parsed instead, so the result is always the same as
+     * {@link #parseSource()}.
+     */
+    public Ast.Source reparse(Ast.Source previous, List<Token> previousTokens, int offset, int removed, int inserted) throws ParseException {
+        int start = tokens.index;
+        int[] bounds = declarations(previous, previousTokens);
+        if (bounds == null || tokens.source != null || start != 0 || positions != null) {
+            return parseSource();
+        }
+        int delta = inserted - removed;
+        int prefix = search(previousTokens, offset, true);
+        int kept = 0;
+        while (kept + 1 < bounds.length && bounds[kept + 1] <= prefix) {
+            kept++;
+        }
+        int suffix = bounds.length - 1;
+        int shift = 0;
+        for (int old = search(previousTokens, offset + removed, false); old < previousTokens.size(); old++) {
+            int position = previousTokens.get(old).getIndex() + delta;
+            int low = 0;
+            int high = tokens.size();
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (tokens.getIndex(mid - tokens.index) < position) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            if (low < tokens.size() && tokens.getIndex(low - tokens.index) == position) {
+                shift = low - old;
+                while (suffix > kept && bounds[suffix - 1] >= old) {
+                    suffix--;
+                }
+                break;
+            }
+        }
+        int fields = previous.getFields().size();
+        try {
+            Parser parser = new Parser(tokens.range(bounds[kept], suffix == bounds.length - 1 ? tokens.size() : bounds[suffix] + shift));
+            parser.constants = constants;
+            List<Ast.Field> newFields = new ArrayList<>(previous.getFields().subList(0, Math.min(kept, fields)));
+            List<Ast.Method> newMethods = new ArrayList<>(previous.getMethods().subList(0, Math.max(kept - fields, 0)));
+            while (newMethods.isEmpty() && parser.peek(SymbolTable.LET)) {
+                newFields.add(parser.parseField());
+                parser.checkRange();
+            }
+            while (parser.peek(SymbolTable.DEF)) {
+                newMethods.add(parser.parseMethod());
+                parser.checkRange();
+            }
+            if (parser.tokens.has(0) || (suffix < fields && !newMethods.isEmpty())) {
+                throw new IllegalStateException("The edited declarations don't fit between the unchanged ones.");
+            }
+            newFields.addAll(previous.getFields().subList(Math.min(suffix, fields), fields));
+            newMethods.addAll(previous.getMethods().subList(Math.max(suffix - fields, 0), previous.getMethods().size()));
+            tokens.index = tokens.size();
+            return new Ast.Source(newFields, newMethods);
+        } catch (RuntimeException e) {
+            tokens.index = start;
+            return parseSource();
+        }
+    }
+
+    /**
+     * Throws if the parser has looked past the end of its token range, since
+     * what it parsed might have been different with the tokens after it.
+     */
+    private void checkRange() {
+        if (tokens.overrun) {
+            throw new IllegalStateException("The declaration was not parsed within its range.");
+        }
+    }
+
+    /**
+     * Returns the index of the first token in each declaration of the source,
+     * followed by the number of tokens, or {@code null} if the declarations
+     * don't line up with the tokens.
+     */
+    private static int[] declarations(Ast.Source source, List<Token> tokens) {
+        int fields = source.getFields().size();
+        int[] bounds = new int[fields + source.getMethods().size() + 1];
+        int index = 0;
+        for (int i = 0; i + 1 < bounds.length; i++) {
+            bounds[i] = index;
+            if (index >= tokens.size()) {
+                return null;
+            } else if (i < fields && tokens.get(index).getSymbol() == SymbolTable.LET) {
+                while (index < tokens.size() && !tokens.get(index).hasLiteral(";")) {
+                    index++;
+                }
+            } else if (i >= fields && tokens.get(index).getSymbol() == SymbolTable.DEF) {
+                for (int depth = 0; index < tokens.size(); index++) {
+                    int symbol = tokens.get(index).getSymbol();
+                    if (symbol == SymbolTable.DO || symbol == SymbolTable.FOR) {
+                        depth++;
+                    } else if (symbol == SymbolTable.END && --depth <= 0) {
+                        break;
+                    }
+                }
+            } else {
+                return null;
+            }
+            index++;
+        }
+        bounds[bounds.length - 1] = tokens.size();
+        return index == tokens.size() ? bounds : null;
+    }
+
+    /**
+     * Returns the number of tokens which end before the position, or if
+     * {@code end} is false, which start before it.
+     */
+    private static int search(List<Token> tokens, int position, boolean end) {
+        int low = 0;
+        int high = tokens.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            Token token = tokens.get(mid);
+            if (token.getIndex() + (end ? token.getLength() : 0) < position) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Parses the {@code source} rule, but instead of stopping at the first
+     * syntax error, records it in {@link #getDiagnostics()} and carries on
+     * from the next point where parsing can resume:
+     *
+     *  - after an error in a statement, the rest of the statement is skipped
+     *    up to and including its {@code ;}, or up to an {@code END}, {@code
+     *    ELSE} or {@code DEF} which closes the enclosing block,
+     *  - after an error in a field, everything up to its {@code ;} or the
+     *    next declaration is skipped, and
+     *  - after an error in a method signature, the method is skipped up to
+     *    the next {@code DEF}.
+     *
+     * The returned source contains every declaration and statement which was
+     * parsed without errors, and is the same as {@link #parseSource()} if
+     * there were none. Errors are created without a stack trace, so a file
+     * with many errors costs about the same to parse as one with none.
+     */
+    public Ast.Source parseSourceRecovering() {
+        diagnostics.clear();
+        recovering = true;
+        try {
+            int begin = tokens.index;
+            List<Ast.Field> fields = new ArrayList<>();
+            List<Ast.Method> methods = new ArrayList<>();
+            while (tokens.has(0)) {
+                int start = tokens.index;
+                boolean method = peek(SymbolTable.DEF);
+                try {
+                    if (method) {
+                        methods.add(parseMethod());
+                    } else if (methods.isEmpty() && peek(SymbolTable.LET)) {
+                        fields.add(parseField());
+                    } else {
+                        throw error("Invalid syntax", handleIndex());
+                    }
+                } catch (ParseException e) {
+                    report(e);
+                    skipDeclaration(start, method);
+                }
             }
-            return new Ast.Source(fields, methods);
+            return record(new Ast.Source(fields, methods), begin);
+        } finally {
+            recovering = false;
+        }
+    }
 
+    /**
+     * Returns the syntax errors found by the last call to {@link
+     * #parseSourceRecovering()}, in the order they appear in the input.
+     */
+    public List<ParseException> getDiagnostics() {
+        return diagnostics;
+    }
 
+    /**
+     * Sets the table to record the position of each node the parser creates
+     * in, as the index of the token it starts at (such as the {@code LET} of
+     * a declaration, or the left operand of a binary expression). Nodes which
+     * are parsed later, like the statements of a lazy method, are recorded in
+     * the same table when they are parsed. Positions aren't recorded if the
+     * table is {@code null}, which is the default.
+     *
+     * Since the nodes kept by {@link #reparse(Ast.Source, List, int, int,
+     * int)} would be at different token indices, it parses the whole source
+     * instead when positions are being recorded.
+     */
+    public void setPositions(AstPositions positions) {
+        this.positions = positions;
+    }
 
+    public AstPositions getPositions() {
+        return positions;
+    }
+
+    /**
+     * Returns the pool of literal values parsed so far, which every {@link
+     * Ast.Expression.Literal} created by this parser (including those in lazy
+     * or parallel parsed methods) takes its value from.
+     */
+    public ConstantPool getConstants() {
+        return constants;
+    }
+
+    private <T extends Ast> T record(T ast, int start) {
+        if (positions != null) {
+            positions.put(ast, start);
+        }
+        return ast;
+    }
+
+    /**
+     * Creates the exception for a syntax error, which only captures a stack
+     * trace if it isn't going to be recovered from.
+     */
+    private ParseException error(String message, int index) {
+        return new ParseException(message, index, !recovering);
+    }
+
+    /**
+     * Records a diagnostic, unless one was already recorded at the same index
+     * (such as an error in a statement which is reported again by each block
+     * it was nested in).
+     */
+    private void report(ParseException error) {
+        if (diagnostics.isEmpty() || diagnostics.get(diagnostics.size() - 1).getIndex() != error.getIndex()) {
+            diagnostics.add(error);
+        }
+    }
+
+    /**
+     * Parses a statement and adds it to the list. When recovering, a statement
+     * with an error is reported and skipped instead; the error is only thrown
+     * if nothing could be skipped, such as at the end of the input or at a
+     * {@code DEF}, so that the enclosing block ends there instead.
+     */
+    private void addStatement(List<Ast.Statement> statements) throws ParseException {
+        if (!recovering) {
+            statements.add(parseStatement());
+            return;
+        }
+        int start = tokens.index;
+        try {
+            if (peek(SymbolTable.DEF)) {
+                throw error("Missing END", handleIndex());
+            }
+            statements.add(parseStatement());
+        } catch (ParseException e) {
+            report(e);
+            if (!skipStatement(start)) {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Skips the rest of a statement which started at the given index, up to
+     * and including the next {@code ;}, or up to the next {@code END}, {@code
+     * ELSE} or {@code DEF}. Returns false if no tokens were skipped.
+     */
+    private boolean skipStatement(int start) {
+        while (tokens.has(0) && !peek(SymbolTable.DEF)) {
+            if (tokens.index > start && (peek(SymbolTable.END) || peek(SymbolTable.ELSE))) {
+                break;
+            } else if (match(';')) {
+                break;
+            }
+            tokens.advance();
+        }
+        return tokens.index > start;
+    }
+
+    /**
+     * Skips the rest of a declaration which started at the given index: up to
+     * the next {@code DEF} for a method, or otherwise up to and including the
+     * next {@code ;}, or up to the next {@code LET} or {@code DEF}.
+     */
+    private void skipDeclaration(int start, boolean method) {
+        while (tokens.has(0)) {
+            if (tokens.index > start && (peek(SymbolTable.DEF) || (!method && peek(SymbolTable.LET)))) {
+                break;
+            } else if (!method && match(';')) {
+                break;
+            }
+            tokens.advance();
+        }
+    }
+
+    /**
+     * Returns the index of the {@code END} which closes the block, scanning
+     * from the given token index with {@code depth} blocks already open, or
+     * {@code -1} if the tokens run out first.
+     */
+    private int blockEnd(int index, int depth) {
+        for (; index < tokens.size(); index++) {
+            int symbol = tokens.getSymbol(index - tokens.index);
+            if (symbol == SymbolTable.DO || symbol == SymbolTable.FOR) {
+                depth++;
+            } else if (symbol == SymbolTable.END && --depth <= 0) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Parses the statements of a method body up to and including its {@code
+     * END}, for a method parsed by {@link #parseSourceLazy()}. The body must
+     * fill the parser's range of tokens exactly.
+     */
+    private List<Ast.Statement> parseMethodBody() throws ParseException {
+        List<Ast.Statement> statements = new ArrayList<>();
+        while (!match(SymbolTable.END) && tokens.has(0)) {
+            statements.add(parseStatement());
+        }
+        if (tokens.overrun || tokens.has(0)) {
+            throw error("Invalid method body", tokens.has(0) ? handleIndex() : tokens.getIndex(-1));
+        }
+        return statements;
     }
 
     /**
@@ -60,42 +523,43 @@ public final class Parser {
      */
     public Ast.Field parseField() throws ParseException {
         //field ::= 'LET' 'CONST'? identifier ('=' expression)? ';'
-        match("LET");
+        int start = tokens.index;
+        match(SymbolTable.LET);
 
         boolean constant = false;
         String typename =null;
         String name;
-        if(match("CONST")) {
+        if(match(SymbolTable.CONST)) {
             constant = true;
         }
         if(match(Token.Type.IDENTIFIER)){
-            name = tokens.get(-1).getLiteral();
+            name = tokens.getLiteral(-1);
         }
         else {
-            throw new ParseException("IDENTIFIER is missing", handleIndex());
+            throw error("IDENTIFIER is missing", handleIndex());
         }
 
-        if(match(":")){
+        if(match(':')){
             if(match(Token.Type.IDENTIFIER)){
-                typename = tokens.get(-1).getLiteral();
+                typename = tokens.getLiteral(-1);
             }
-            else throw new ParseException("Identifier is missing", handleIndex());
+            else throw error("Identifier is missing", handleIndex());
 
         }
         else {
-            throw new ParseException("Field type must be declared.", handleIndex());
+            throw error("Field type must be declared.", handleIndex());
         }
 
-        if(match("=")){
+        if(match('=')){
             Ast.Expression expr = parseExpression();
-            if (match(";") && typename!=null){
-                return new Ast.Field(name, typename, constant, Optional.of(expr));
+            if (match(';') && typename!=null){
+                return record(new Ast.Field(name, typename, constant, Optional.of(expr)), start);
 
             }
         }
-        if (match(";"))
-            return new Ast.Field(name, typename, constant, Optional.empty());
-        throw new ParseException("missing semicolon", handleIndex());
+        if (match(';'))
+            return record(new Ast.Field(name, typename, constant, Optional.empty()), start);
+        throw error("missing semicolon", handleIndex());
     }
 
     /**
@@ -110,71 +574,90 @@ public final class Parser {
             List<String> params = new ArrayList<>();
             List<String> types = new ArrayList<>();
 
-        match("DEF");
+        int start = tokens.index;
+        match(SymbolTable.DEF);
 
         String name;
         String returnType = null;
 
             if (match(Token.Type.IDENTIFIER)){
-                name = tokens.get(-1).getLiteral();
+                name = tokens.getLiteral(-1);
 
-                if (match("(")){
-                    if(peek(Token.Type.IDENTIFIER) && !peek("DO")){
+                if (match('(')){
+                    if(peek(Token.Type.IDENTIFIER) && !peek(SymbolTable.DO)){
                         match(Token.Type.IDENTIFIER);
                         //optional
-                        params.add(tokens.get(-1).getLiteral());
+                        params.add(tokens.getLiteral(-1));
 
-                        if(match(":")){
+                        if(match(':')){
                             if (match(Token.Type.IDENTIFIER)) {
-                                types.add(tokens.get(-1).getLiteral());
+                                types.add(tokens.getLiteral(-1));
                             }
                             else {
 
-                                throw new ParseException("Type is missing", handleIndex());
+                                throw error("Type is missing", handleIndex());
                             }
                         }
                         else {
-                            throw new ParseException("Method type must be declared.", handleIndex());
+                            throw error("Method type must be declared.", handleIndex());
 
                         }
-                        while(match(",") && match(Token.Type.IDENTIFIER)){
-                            params.add(tokens.get(-1).getLiteral());
-                            if(match(":")){
+                        while(match(',') && match(Token.Type.IDENTIFIER)){
+                            params.add(tokens.getLiteral(-1));
+                            if(match(':')){
                                 if (match(Token.Type.IDENTIFIER)) {
-                                    types.add(tokens.get(-1).getLiteral());
+                                    types.add(tokens.getLiteral(-1));
                                 }
                                 else
-                                    throw new ParseException("Type is missing", handleIndex());
+                                    throw error("Type is missing", handleIndex());
 
                             }
                         }
                     }
-                    if(!match(")")){
-                        throw new ParseException("Must have a closing ')'", handleIndex());
+                    if(!match(')')){
+                        throw error("Must have a closing ')'", handleIndex());
                     }
                 }
                 else
-                    throw new ParseException("Must have an opening ')' ", handleIndex());
+                    throw error("Must have an opening ')' ", handleIndex());
 
             }
             else
-                throw new ParseException("Method name is missing", handleIndex());
-            if(match((":"))){
+                throw error("Method name is missing", handleIndex());
+            if(match(':')){
                 if (match(Token.Type.IDENTIFIER))
-                    returnType = tokens.get(-1).getLiteral();
+                    returnType = tokens.getLiteral(-1);
             }
 
-            if (match("DO")){
-                while (!match("END") && tokens.has(0))
-                    stmnts.add(parseStatement());
+            if (match(SymbolTable.DO)){
+                int end = lazy && tokens.source == null ? blockEnd(tokens.index, 1) : -1;
+                if (end >= 0 && (end + 1 == tokens.size() || tokens.getSymbol(end + 1 - tokens.index) == SymbolTable.DEF)) {
+                    TokenStream body = tokens.range(tokens.index, end + 1);
+                    AstPositions shared = positions;
+                    ConstantPool pool = constants;
+                    tokens.index = end + 1;
+                    return record(new Ast.Method(name, params, types, Optional.ofNullable(returnType), () -> {
+                        Parser parser = new Parser(body);
+                        parser.positions = shared;
+                        parser.constants = pool;
+                        return parser.parseMethodBody();
+                    }), start);
+                }
+                while (!match(SymbolTable.END) && tokens.has(0)) {
+                    if (recovering && peek(SymbolTable.DEF)) {
+                        report(error("Missing END", handleIndex()));
+                        break;
+                    }
+                    addStatement(stmnts);
+                }
                 if(returnType == null)
-                    return new Ast.Method(name, params, types, Optional.empty(), stmnts);
+                    return record(new Ast.Method(name, params, types, Optional.empty(), stmnts), start);
                 else
-                    return new Ast.Method(name, params, types, Optional.of(returnType), stmnts);
+                    return record(new Ast.Method(name, params, types, Optional.of(returnType), stmnts), start);
 
             }
             else
-                throw new ParseException("Missing 'DO'", handleIndex());
+                throw error("Missing 'DO'", handleIndex());
 
     }
 
@@ -186,9 +669,9 @@ public final class Parser {
      */
     public int handleIndex() throws ParseException  {
         if(tokens.has(0)){
-            return tokens.get(0).getIndex();
+            return tokens.getIndex(0);
         }
-        return tokens.get(-1).getIndex();
+        return tokens.getIndex(-1);
     }
     public Ast.Statement parseStatement() throws ParseException {
         // name = val;
@@ -198,33 +681,34 @@ public final class Parser {
         //      first name is evaluated and passed as a received when
         //
         //assignment case
-            if (peek(Token.Type.IDENTIFIER) && match("LET")) {
+            int start = tokens.index;
+            if (match(SymbolTable.LET)) {
                 return parseDeclarationStatement();
-            } else if (peek(Token.Type.IDENTIFIER) && match("IF")) {
+            } else if (match(SymbolTable.IF)) {
                 return parseIfStatement();
-            } else if (peek(Token.Type.IDENTIFIER) && match("FOR")) {
+            } else if (match(SymbolTable.FOR)) {
                 return parseForStatement();
-            } else if (peek(Token.Type.IDENTIFIER) && match("WHILE")) {
+            } else if (match(SymbolTable.WHILE)) {
                 return parseWhileStatement();
-            } else if (peek(Token.Type.IDENTIFIER) && match("RETURN")) {
+            } else if (match(SymbolTable.RETURN)) {
                 return parseReturnStatement();
             }
             Ast.Expression left = parseExpression();
 
-        if (match("=")) {
+        if (match('=')) {
 
             Ast.Expression right = parseExpression();
-                if (match(";"))
-                    return new Ast.Statement.Assignment(left, right);
+                if (match(';'))
+                    return record(new Ast.Statement.Assignment(left, right), start);
                 else
-                    throw new ParseException("No terminator.", handleIndex());
+                    throw error("No terminator.", handleIndex());
             }
 
-        else if (match(";")) {
-            return new Ast.Statement.Expression(left);
+        else if (match(';')) {
+            return record(new Ast.Statement.Expression(left), start);
         }
 
-        throw new ParseException("Invalid statement.", handleIndex());
+        throw error("Invalid statement.", handleIndex());
 
 
 
@@ -238,33 +722,34 @@ public final class Parser {
      */
     public Ast.Statement.Declaration parseDeclarationStatement() throws ParseException {
        // 'LET' identifier ('=' expression)? ';' |
+        int start = tokens.index - 1;
         if (match(Token.Type.IDENTIFIER)) {
-            String name = tokens.get(-1).getLiteral();
+            String name = tokens.getLiteral(-1);
             String typename = null;
-            if(match(":")){
+            if(match(':')){
                 if (match(Token.Type.IDENTIFIER)){
-                    typename= tokens.get(-1).getLiteral();
+                    typename= tokens.getLiteral(-1);
                 }
                 else
-                    throw new ParseException("Type is missing", handleIndex());
+                    throw error("Type is missing", handleIndex());
 
             }
-            if(match("=")) {
+            if(match('=')) {
                 Ast.Expression right = parseExpression();
-                if (match(";"))
+                if (match(';'))
                     if (typename!=null)
-                        return new Ast.Statement.Declaration(name, Optional.of(typename), Optional.of(right));
+                        return record(new Ast.Statement.Declaration(name, Optional.of(typename), Optional.of(right)), start);
                     else
-                        return new Ast.Statement.Declaration(name, Optional.empty(), Optional.of(right)); }
-            if (match(";"))
+                        return record(new Ast.Statement.Declaration(name, Optional.empty(), Optional.of(right)), start); }
+            if (match(';'))
                 if (typename!=null)
-                    return new Ast.Statement.Declaration(name, Optional.of(typename), Optional.empty());
+                    return record(new Ast.Statement.Declaration(name, Optional.of(typename), Optional.empty()), start);
                 else
-                    return new Ast.Statement.Declaration(name, Optional.empty(), Optional.empty());
+                    return record(new Ast.Statement.Declaration(name, Optional.empty(), Optional.empty()), start);
 
 
         }
-        throw new ParseException("Invalid declaration.", handleIndex());
+        throw error("Invalid declaration.", handleIndex());
     }
 
     /**
@@ -274,28 +759,28 @@ public final class Parser {
      */
     public Ast.Statement.If parseIfStatement() throws ParseException {
       //  'IF' expression 'DO' statement* ('ELSE' statement*)? 'END' |
-
+        int start = tokens.index - 1;
         Ast.Expression expr = parseExpression();
-        if (match("DO")){
+        if (match(SymbolTable.DO)){
 
             List<Ast.Statement> statements = new ArrayList<>();
             List<Ast.Statement> elseStatements = new ArrayList<>();
 
-            while(! peek("END") && !peek("ELSE")){
-                statements.add(parseStatement());
+            while(! peek(SymbolTable.END) && !peek(SymbolTable.ELSE)){
+                addStatement(statements);
             }
-            if(match("ELSE")){
-                while(!peek("END")) {
-                    elseStatements.add(parseStatement());
+            if(match(SymbolTable.ELSE)){
+                while(!peek(SymbolTable.END)) {
+                    addStatement(elseStatements);
                 }
             }
-            if (match("END")) {
+            if (match(SymbolTable.END)) {
 
-                return new Ast.Statement.If(expr, statements, elseStatements);
+                return record(new Ast.Statement.If(expr, statements, elseStatements), start);
             }
-            throw new ParseException("Invalid if statement." ,handleIndex());
+            throw error("Invalid if statement." ,handleIndex());
         }
-        throw new ParseException("Invalid if statement." , handleIndex());
+        throw error("Invalid if statement." , handleIndex());
     }
 
     /**
@@ -305,20 +790,22 @@ public final class Parser {
      */
     public Ast.Statement.For parseForStatement() throws ParseException {
         //'FOR' '(' (identifier '=' expression)? ';' expression ';' (identifier '=' expression)? ')' statement* 'END' |
+        int start = tokens.index - 1;
         String id ="";
         Ast.Statement st1 = null;
         Ast.Statement st2 = null;
 
-        if (match("(")){
+        if (match('(')){
             if(match(Token.Type.IDENTIFIER)){
-                id =  tokens.get(-1).getLiteral();
-                if(match("=")){
+                id =  tokens.getLiteral(-1);
+                int target = tokens.index - 1;
+                if(match('=')){
                     Ast.Expression expr1 = parseExpression();
-                    st1 = new  Ast.Statement.Assignment( new Ast.Expression.Access(Optional.empty(), id), expr1);
+                    st1 = record(new  Ast.Statement.Assignment( record(new Ast.Expression.Access(Optional.empty(), id), target), expr1), target);
                     // st1 = new Ast.Statement.Declaration(id, Optional.of(expr1));
                 }
                 else {
-                    throw new ParseException(" = missing", handleIndex());
+                    throw error(" = missing", handleIndex());
                 }
             }
          //   else {
@@ -326,38 +813,39 @@ public final class Parser {
           //  }
 
         }
-        if(!match(";")){
-            throw new ParseException("Missing semicolon", handleIndex());
+        if(!match(';')){
+            throw error("Missing semicolon", handleIndex());
         }
         Ast.Expression expr2 = parseExpression();
-        if(!match(";")){
-            throw new ParseException("Missing semicolon", handleIndex());
+        if(!match(';')){
+            throw error("Missing semicolon", handleIndex());
         }
         if(match(Token.Type.IDENTIFIER)) {
-            String id2 = tokens.get(-1).getLiteral();
-            if (!match("=")) {
-                throw new ParseException("Missing equal sign", handleIndex());
+            String id2 = tokens.getLiteral(-1);
+            int target = tokens.index - 1;
+            if (!match('=')) {
+                throw error("Missing equal sign", handleIndex());
             }
             Ast.Expression expr3 = parseExpression();
-            st2 = new  Ast.Statement.Assignment( new Ast.Expression.Access(Optional.empty(), id2), expr3);
+            st2 = record(new  Ast.Statement.Assignment( record(new Ast.Expression.Access(Optional.empty(), id2), target), expr3), target);
 
         //    st2 = new Ast.Statement.Declaration(id2, Optional.of(expr3));
 
         }
-        if (!match(")")) {
-            throw new ParseException("Missing semicolon", handleIndex());
+        if (!match(')')) {
+            throw error("Missing semicolon", handleIndex());
         }
         List<Ast.Statement> stmnts = new ArrayList<>();
-        while(!match("END") ){
+        while(!match(SymbolTable.END) ){
             if(!tokens.has(0))
-                throw new ParseException("EOI", handleIndex());
-            stmnts.add(parseStatement());
+                throw error("EOI", handleIndex());
+            addStatement(stmnts);
         }
 
         if(st1!=null){
-            return new Ast.Statement.For(st1, expr2, st2, stmnts);
+            return record(new Ast.Statement.For(st1, expr2, st2, stmnts), start);
         }
-        return new Ast.Statement.For(st1, expr2, st2, stmnts); //handle properly
+        return record(new Ast.Statement.For(st1, expr2, st2, stmnts), start); //handle properly
     }
 
     /**
@@ -367,6 +855,7 @@ public final class Parser {
      */
     public Ast.Statement.While parseWhileStatement() throws ParseException {
         //    'WHILE' expression 'DO' statement* 'END' |
+        int start = tokens.index - 1;
         Ast.Expression expr = parseExpression();
 
         //
@@ -375,16 +864,15 @@ public final class Parser {
         //  Arrays.asList(new Ast.Statement.Expression(new Ast.Expression.Access(Optional.empty(), "stmt")))
         // )
         // )
-        if (match("DO")){
+        if (match(SymbolTable.DO)){
             List<Ast.Statement> statements = new ArrayList<>();
-            while (! match("END")){
-                Ast.Expression.Statement stmt =   parseStatement();
-                statements.add(stmt);
+            while (! match(SymbolTable.END)){
+                addStatement(statements);
             }
-            return new Ast.Statement.While(expr, statements );
+            return record(new Ast.Statement.While(expr, statements ), start);
 
         }
-        throw new ParseException("Invalid statement.", handleIndex());
+        throw error("Invalid statement.", handleIndex());
 
     }
 
@@ -394,19 +882,19 @@ public final class Parser {
      * {@code RETURN}.
      */
     public Ast.Statement.Return parseReturnStatement() throws ParseException {
+        int start = tokens.index - 1;
         Ast.Expression expr = parseExpression();
-        if (!match(";"))
-            throw new ParseException("Missing semicolon", handleIndex());
+        if (!match(';'))
+            throw error("Missing semicolon", handleIndex());
 
-        return new Ast.Statement.Return(expr);
+        return record(new Ast.Statement.Return(expr), start);
     }
 
     /**
      * Parses the {@code expression} rule.
      */
     public Ast.Expression parseExpression() throws ParseException {
-        Ast.Expression expr =  parseLogicalExpression();
-        return expr;
+        return parseBinaryExpression(LOGICAL);
     }
 
     /**
@@ -414,28 +902,7 @@ public final class Parser {
      */
 
     public Ast.Expression parseLogicalExpression() throws ParseException {
-
-        Ast.Expression left = parseEqualityExpression();
-        while (match("OR") || match("AND")
-                || match("&") || match("|"))  {
-            String operator = tokens.get(-1).getLiteral();
-
-
-            if (tokens.get(-1).getLiteral().equals("&")){
-                if (match("&")) {
-                    operator = "AND";
-                }
-            }
-            else if (tokens.get(-1).getLiteral().equals("|")){
-                if ( match("|")) {
-                    operator = "OR";
-                }
-            }
-            Ast.Expression right = parseEqualityExpression();
-            left = new Ast.Expression.Binary(operator, left, right);
-            }
-
-        return left;
+        return parseBinaryExpression(LOGICAL);
     }
 
 
@@ -443,48 +910,110 @@ public final class Parser {
      * Parses the {@code equality-expression} rule.
      */
     public Ast.Expression parseEqualityExpression() throws ParseException {
-
-
-        Ast.Expression expr = parseAdditiveExpression();
-        while (match("<") || match("<=") || match(">")
-                || match(">=") || match("==") || match("!=")) {
-                String operator = tokens.get(-1).getLiteral();
-                Ast.Expression right = parseAdditiveExpression();
-                expr = new Ast.Expression.Binary(operator, expr, right);
-            }
-            return expr;
-
+        return parseBinaryExpression(EQUALITY);
     }
 
     /**
      * Parses the {@code additive-expression} rule.
      */
     public Ast.Expression parseAdditiveExpression() throws ParseException {
-
-        Ast.Expression expr = parseMultiplicativeExpression();
-        while (match("+") || match("-") ){
-            String operator = tokens.get(-1).getLiteral();
-            Ast.Expression expr2 = parseMultiplicativeExpression();
-            expr = new Ast.Expression.Binary(operator, expr, expr2 );
-        }
-        return expr;
-
-
+        return parseBinaryExpression(ADDITIVE);
     }
 
     /**
      * Parses the {@code multiplicative-expression} rule.
      */
     public Ast.Expression parseMultiplicativeExpression() throws ParseException {
-            Ast.Expression expr = parseSecondaryExpression();
-            while (match("*") || match("/")) {
-                String operator = tokens.get(-1).getLiteral();
-                Ast.Expression expr2 = parseSecondaryExpression();
-                expr = new Ast.Expression.Binary(operator, expr, expr2);
+        return parseBinaryExpression(MULTIPLICATIVE);
+    }
+
+    /**
+     * Parses a binary expression containing only operators with at least the
+     * given precedence, using precedence climbing: each operator's right
+     * operand is parsed with the next higher precedence, which makes every
+     * operator left associative. This builds the same trees as having a method
+     * for each level, but without going through every level for each operand.
+     */
+    private Ast.Expression parseBinaryExpression(int precedence) throws ParseException {
+        int start = tokens.index;
+        Ast.Expression left = parseSecondaryExpression();
+        for (int next = precedence(); next >= precedence; next = precedence()) {
+            String operator;
+            if (match('&', '&')) {
+                operator = "AND";
+            } else if (match('|', '|')) {
+                operator = "OR";
+            } else {
+                operator = operator();
+                tokens.advance();
             }
+            Ast.Expression right = parseBinaryExpression(next + 1);
+            left = record(new Ast.Expression.Binary(operator, left, right), start);
+        }
+        return left;
+    }
 
-        return expr;
+    /**
+     * Returns the precedence of the next token as a binary operator, or
+     * {@code 0} if it isn't one. The operator is read a character at a time so
+     * that tokens in a {@link TokenBuffer} don't have their literal copied.
+     */
+    private int precedence() {
+        if (!tokens.has(0)) {
+            return 0;
+        }
+        if (tokens.getType(0) == Token.Type.IDENTIFIER) {
+            int symbol = tokens.getSymbol(0);
+            return symbol == SymbolTable.OR || symbol == SymbolTable.AND ? LOGICAL : 0;
+        }
+        if (tokens.getType(0) != Token.Type.OPERATOR) {
+            return 0;
+        }
+        char first = tokens.charAt(0, 0);
+        if (tokens.getLength(0) == 2) {
+            return tokens.charAt(0, 1) == '=' && (first == '<' || first == '>' || first == '=' || first == '!') ? EQUALITY : 0;
+        }
+        switch (first) {
+            case '&': case '|':
+                return LOGICAL;
+            case '<': case '>':
+                return EQUALITY;
+            case '+': case '-':
+                return ADDITIVE;
+            case '*': case '/':
+                return MULTIPLICATIVE;
+            default:
+                return 0;
+        }
+    }
 
+    /**
+     * Returns the literal of the next token, which must be a binary operator
+     * as given by {@link #precedence()}, as one of the constant strings used
+     * in {@link Ast.Expression.Binary}.
+     */
+    private String operator() {
+        if (tokens.getType(0) == Token.Type.IDENTIFIER) {
+            return tokens.getSymbol(0) == SymbolTable.AND ? "AND" : "OR";
+        }
+        if (tokens.getLength(0) == 2) {
+            switch (tokens.charAt(0, 0)) {
+                case '<': return "<=";
+                case '>': return ">=";
+                case '=': return "==";
+                default: return "!=";
+            }
+        }
+        switch (tokens.charAt(0, 0)) {
+            case '&': return "&";
+            case '|': return "|";
+            case '<': return "<";
+            case '>': return ">";
+            case '+': return "+";
+            case '-': return "-";
+            case '*': return "*";
+            default: return "/";
+        }
     }
 
     /**
@@ -495,26 +1024,27 @@ public final class Parser {
         //2. Ast.Expression.Access( Ast.Expression.Access(Optional.empty(), obj), func)
         // Ast.Expression.Function(Ast.Expression.Access(Optional.of(new Ast.Expression.Access(Optional.empty(), "obj")), "func"), func, [] )
         //
+            int start = tokens.index;
             Ast.Expression expr = parsePrimaryExpression();
 
-        while (match(".")) {
+        while (match('.')) {
 
 
 
             if (match(Token.Type.IDENTIFIER)) {
-                String name = tokens.get(-1).getLiteral();
+                String name = tokens.getLiteral(-1);
 
-                if (peek("(")) {
-                    expr = parseFunctionHelper(name, Optional.of(expr));
+                if (peek('(')) {
+                    expr = record(parseFunctionHelper(name, Optional.of(expr)), start);
                 }
                 else{
-                        expr = new Ast.Expression.Access(Optional.of(expr), name);
+                        expr = record(new Ast.Expression.Access(Optional.of(expr), name), start);
 
                 }
 
             }
             else
-                throw new ParseException("Invalid expression.", handleIndex());
+                throw error("Invalid expression.", handleIndex());
         }
         return expr;
 
@@ -526,8 +1056,8 @@ public final class Parser {
 
             List<Ast.Expression> lst = new ArrayList<>();
 
-            if (match("(")) {
-                if(match(")")){
+            if (match('(')) {
+                if(match(')')){
                     if (expr.isPresent()) {
                         Ast.Expression expr_object = expr.get();
                         return new Ast.Expression.Function(Optional.of(expr_object), name,  lst );
@@ -540,12 +1070,12 @@ public final class Parser {
                 Ast.Expression expr2 = parseExpression();
                 lst.add(expr2);
 
-                while (match(",")) {
+                while (match(',')) {
                         expr2 = parseExpression();
                         lst.add(expr2);
                 }
-                if (!match(")")) {
-                    throw new ParseException("Must have a closing \"(", handleIndex());
+                if (!match(')')) {
+                    throw error("Must have a closing \"(", handleIndex());
                 }
                 if (expr.isPresent()) {
                     Ast.Expression expr_object = expr.get();
@@ -558,7 +1088,7 @@ public final class Parser {
                 }
             }
 
-            throw new ParseException("Invalid parameters", handleIndex());
+            throw error("Invalid parameters", handleIndex());
 
 
     }
@@ -569,169 +1099,261 @@ public final class Parser {
      * functions. It may be helpful to break these up into other methods but is
      * not strictly necessary.
      *
+     * String and character literals use the value decoded by the lexer, see
+     * {@link Token#getValue()}.
      */
-
-    Ast.Expression.Literal CharactersIterator(String word, String finalstr,  boolean chr){
-        for (int i = 0; i < word.length(); i++) {
-            if (word.charAt(i) == '\\') {
-                switch(word.charAt(i+1)){
-                    case 'n' ->  finalstr = finalstr + '\n';
-                    case 'r' ->  finalstr = finalstr + '\r';
-                    case 't' ->  finalstr = finalstr + '\t';
-                    case 'f' -> finalstr = finalstr + '\f';
-                    case '\\' -> finalstr = finalstr + '\\';
-                    case '"' -> finalstr = finalstr + '"';
-                    default -> finalstr = finalstr + word.charAt(i+1);
-                }
-
-                i+=1;
-
-            }
-            else
-                finalstr += word.charAt(i);
-
-        }
-        if (chr)
-            return new Ast.Expression.Literal(finalstr.charAt(finalstr.length()-1));
-
-        return new Ast.Expression.Literal(finalstr);
-    }
-
-
-
     public Ast.Expression parsePrimaryExpression() throws ParseException {
         //identifier
-
-            if (match("TRUE"))
+            int start = tokens.index;
+            if (match(SymbolTable.TRUE))
             {
-                return new Ast.Expression.Literal(true);
-            } else if (match("FALSE")) {
-                return new Ast.Expression.Literal(false);
-            } else if (match("NIL")) {
-                return new Ast.Expression.Literal(null);
+                return record(Ast.Expression.Literal.pooled(constants.intern(true)), start);
+            } else if (match(SymbolTable.FALSE)) {
+                return record(Ast.Expression.Literal.pooled(constants.intern(false)), start);
+            } else if (match(SymbolTable.NIL)) {
+                return record(Ast.Expression.Literal.pooled(constants.intern(null)), start);
             } else if (match(Token.Type.INTEGER)) {
-                return new Ast.Expression.Literal(new BigInteger(tokens.get(-1).getLiteral()));
+                return record(Ast.Expression.Literal.pooled(constants.intern(new BigInteger(tokens.getLiteral(-1)))), start);
             } else if (match(Token.Type.DECIMAL)) {
-                return new Ast.Expression.Literal(new BigDecimal(tokens.get(-1).getLiteral()));
+                return record(Ast.Expression.Literal.pooled(constants.intern(new BigDecimal(tokens.getLiteral(-1)))), start);
             } else if (match(Token.Type.CHARACTER)) {
-
-                String str = tokens.get(-1).getLiteral();
-                str = str.substring(1, str.length()-1);
-                if(str.length() == 1) {
-                    char c = str.charAt(0);
-                    return new Ast.Expression.Literal(c);
-                }
-                String finalstr = "";
-                return CharactersIterator(str, finalstr, true);
-
-
-
-
-
-
-
-
+                String value = tokens.getValue(-1);
+                return record(Ast.Expression.Literal.pooled(constants.intern(value.charAt(value.length() - 1))), start);
             } else if (match(Token.Type.STRING)) {
-                String str = tokens.get(-1).getLiteral();
-                String word = str.substring(1, str.length() - 1);
-                String finalstr = "";
-                return CharactersIterator(word, finalstr, false);
-                //return new Ast.Expression.Literal(str);
-
-            } else if (match("(")) {
+                return record(Ast.Expression.Literal.pooled(constants.intern(tokens.getValue(-1))), start);
+            } else if (match('(')) {
                 Ast.Expression expr = parseExpression();
-                if (!match(")"))
-                    throw new ParseException("Missing ')'", handleIndex());
-                return new Ast.Expression.Group(expr);
+                if (!match(')'))
+                    throw error("Missing ')'", handleIndex());
+                return record(new Ast.Expression.Group(expr), start);
             } else if (match(Token.Type.IDENTIFIER)) {
-                String name = tokens.get(-1).getLiteral();
+                String name = tokens.getLiteral(-1);
                 //a function without receiver
-                if(peek("(")) {
+                if(peek('(')) {
 
-                    return parseFunctionHelper(name, Optional.empty());
+                    return record(parseFunctionHelper(name, Optional.empty()), start);
                 }
                 else
-                    return new Ast.Expression.Access(Optional.empty(), name);
+                    return record(new Ast.Expression.Access(Optional.empty(), name), start);
 
             } else {
-                throw new ParseException("Unknown expression", handleIndex());
+                throw error("Unknown expression", handleIndex());
             }
 
 
     }
 
     /**
-     * As in the lexer, returns {@code true} if the current sequence of tokens
-     * matches the given patterns. Unlike the lexer, the pattern is not a regex;
-     * instead it is either a {@link Token.Type}, which matches if the token's
-     * type is the same, or a {@link String}, which matches if the token's
-     * literal is the same.
+     * As in the lexer, returns {@code true} if the next token matches the
+     * pattern. Unlike the lexer, the pattern is not a regex; there is one
+     * overload for each kind of pattern so that matching doesn't box, allocate
+     * a varargs array, or copy the literal of the token:
+     *
+     *  - a {@link Token.Type}, which matches if the token's type is the same,
+     *  - a symbol id such as {@link SymbolTable#LET}, which matches if the
+     *    token was interned as that symbol (i.e. it is that keyword), and
+     *  - a {@code char}, which matches if the token's literal is exactly that
+     *    character, as for operators like {@code '('} and {@code ';'}.
      *
-     * In other words, {@code Token(IDENTIFIER, "literal")} is matched by both
-     * {@code peek(Token.Type.IDENTIFIER)} and {@code peek("literal")}.
+     * In other words, {@code Token(IDENTIFIER, "LET")} is matched by both
+     * {@code peek(Token.Type.IDENTIFIER)} and {@code peek(SymbolTable.LET)}.
      */
-    private boolean peek(Object... patterns) {
-
-            for (int i = 0; i < patterns.length; i++) {
+    private boolean peek(Token.Type type) {
+        return tokens.has(0) && tokens.getType(0) == type;
+    }
 
-                if (!tokens.has(i)) {
-                    return false;
-                }
-                else if (patterns[i] instanceof Token.Type) {
-                    if (patterns[i] != tokens.get(i).getType()) {
-                        return false;
-                    }
-                }
-                else if (patterns[i] instanceof String) {
-                   if  (!patterns[i].equals(tokens.get(i).getLiteral())) {
-                        return false;
+    private boolean peek(int symbol) {
+        return tokens.has(0) && tokens.getSymbol(0) == symbol;
+    }
 
-                    }
+    private boolean peek(char operator) {
+        return tokens.has(0) && tokens.hasLiteral(0, operator);
+    }
 
-                }
-                else
-                    throw new AssertionError("Invalid pattern object: " + patterns[i].getClass());
+    /**
+     * Returns {@code true} if the next two tokens are the given characters,
+     * such as the two halves of {@code &&}.
+     */
+    private boolean peek(char first, char second) {
+        return peek(first) && tokens.has(1) && tokens.hasLiteral(1, second);
+    }
 
-            }
+    /**
+     * As in the lexer, returns {@code true} if {@link #peek(Token.Type)} (or
+     * the overload for the pattern) is true and advances past the matched
+     * tokens.
+     */
+    private boolean match(Token.Type type) {
+        if (peek(type)) {
+            tokens.advance();
             return true;
+        }
+        return false;
+    }
 
+    private boolean match(int symbol) {
+        if (peek(symbol)) {
+            tokens.advance();
+            return true;
+        }
+        return false;
+    }
 
+    private boolean match(char operator) {
+        if (peek(operator)) {
+            tokens.advance();
+            return true;
+        }
+        return false;
     }
 
-    /**
-     * As in the lexer, returns {@code true} if {@link #peek(Object...)} is true
-     * and advances the token stream.
-     */
-    private boolean match(Object... patterns) {
-        if (peek(patterns) ){
-            for (int i = 0; i < patterns.length; i++) {
-                tokens.advance();
-            }
+    private boolean match(char first, char second) {
+        if (peek(first, second)) {
+            tokens.advance();
+            tokens.advance();
             return true;
         }
         return false;
     }
+
     private static final class TokenStream {
 
         private final List<Token> tokens;
+        private final Iterator<Token> source;
+        private final TokenBuffer buffer;
+        private int base = 0;
         private int index = 0;
+        private int limit = Integer.MAX_VALUE;
+        private boolean overrun = false;
 
         private TokenStream(List<Token> tokens) {
             this.tokens = tokens;
+            this.source = null;
+            this.buffer = null;
+        }
+
+        /**
+         * Creates a token stream which pulls tokens from the source as they
+         * are needed, only keeping the previous token and any lookahead.
+         */
+        private TokenStream(Iterator<Token> source) {
+            this.tokens = new ArrayList<>();
+            this.source = source;
+            this.buffer = null;
+        }
+
+        /**
+         * Creates a token stream which reads directly from the buffer, only
+         * creating {@link Token} objects when {@link #get(int)} is called.
+         */
+        private TokenStream(TokenBuffer buffer) {
+            this.tokens = null;
+            this.source = null;
+            this.buffer = buffer;
+        }
+
+        /**
+         * Returns a stream over the tokens {@code [start, end)} of this one,
+         * which must be a list or buffer. The new stream records any attempt
+         * to look at a token past the end of its range in {@link #overrun}.
+         */
+        private TokenStream range(int start, int end) {
+            TokenStream range = buffer != null ? new TokenStream(buffer) : new TokenStream(tokens);
+            range.index = start;
+            range.limit = end;
+            return range;
+        }
+
+        /**
+         * Returns the total number of tokens in a list or buffer stream.
+         */
+        public int size() {
+            return buffer != null ? buffer.size() : tokens.size();
         }
 
         /**
          * Returns true if there is a token at index + offset.
          */
         public boolean has(int offset) {
-            return index + offset < tokens.size();
+            if (index + offset >= limit) {
+                overrun = true;
+                return false;
+            }
+            if (buffer != null) {
+                return index + offset < buffer.size();
+            }
+            fill(index + offset);
+            return index + offset - base < tokens.size();
         }
 
         /**
          * Gets the token at index + offset.
          */
         public Token get(int offset) {
-            return tokens.get(index + offset);
+            if (buffer != null) {
+                return buffer.get(index + offset);
+            }
+            fill(index + offset);
+            return tokens.get(index + offset - base);
+        }
+
+        /**
+         * Gets the type of the token at index + offset.
+         */
+        public Token.Type getType(int offset) {
+            return buffer != null ? buffer.getType(index + offset) : get(offset).getType();
+        }
+
+        /**
+         * Gets the symbol id of the token at index + offset.
+         */
+        public int getSymbol(int offset) {
+            return buffer != null ? buffer.getSymbol(index + offset) : get(offset).getSymbol();
+        }
+
+        /**
+         * Gets the literal of the token at index + offset.
+         */
+        public String getLiteral(int offset) {
+            return buffer != null ? buffer.getLiteral(index + offset) : get(offset).getLiteral();
+        }
+
+        /**
+         * Gets the decoded value of the string or character token at index +
+         * offset.
+         */
+        public String getValue(int offset) {
+            return buffer != null ? buffer.getValue(index + offset) : get(offset).getValue();
+        }
+
+        /**
+         * Gets the index in the input of the token at index + offset.
+         */
+        public int getIndex(int offset) {
+            return buffer != null ? buffer.getIndex(index + offset) : get(offset).getIndex();
+        }
+
+        /**
+         * Gets the length of the literal of the token at index + offset.
+         */
+        public int getLength(int offset) {
+            return buffer != null ? buffer.getLength(index + offset) : get(offset).getLength();
+        }
+
+        /**
+         * Gets the character at position {@code i} of the literal of the
+         * token at index + offset, without copying the literal.
+         */
+        public char charAt(int offset, int i) {
+            return buffer != null ? buffer.charAt(index + offset, i) : get(offset).charAt(i);
+        }
+
+        /**
+         * Returns true if the literal of the token at index + offset is the
+         * single given character.
+         */
+        public boolean hasLiteral(int offset, char literal) {
+            return getLength(offset) == 1 && charAt(offset, 0) == literal;
         }
 
         /**
@@ -739,6 +1361,20 @@ public final class Parser {
          */
         public void advance() {
             index++;
+            if (source != null) {
+                while (base < index - 1 && !tokens.isEmpty()) {
+                    tokens.remove(0);
+                    base++;
+                }
+            }
+        }
+
+        private void fill(int position) {
+            if (source != null) {
+                while (position - base >= tokens.size() && source.hasNext()) {
+                    tokens.add(source.next());
+                }
+            }
         }
 
     }
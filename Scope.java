@@ -25,12 +25,19 @@ public final class Scope {
     }
 
     public Environment.Variable defineVariable(String name, String jvmName, Environment.Type type, boolean constant, Environment.PlcObject value) {
-        if (variables.containsKey(name)) {
-            throw new RuntimeException("The variable " + name + " is already defined in this scope.");
+        return defineVariable(new Environment.Variable(name, jvmName, type, constant, value));
+    }
+
+    /**
+     * Defines an existing variable in this scope, such as one which is shared
+     * with another scope.
+     */
+    public Environment.Variable defineVariable(Environment.Variable variable) {
+        if (variables.containsKey(variable.getName())) {
+            throw new RuntimeException("The variable " + variable.getName() + " is already defined in this scope.");
         } else {
-            Environment.Variable variable = new Environment.Variable(name, jvmName, type, constant, value);
             variables.put(variable.getName(), variable);
-            return variables.get(name);
+            return variable;
         }
     }
 
@@ -53,10 +60,17 @@ public final class Scope {
     }
 
     public Environment.Function defineFunction(String name, String jvmName, List<Environment.Type> parameterTypes, Environment.Type returnType, java.util.function.Function<List<Environment.PlcObject>, Environment.PlcObject> function) {
-        if (functions.containsKey(name + "/" + parameterTypes.size())) {
-            throw new RuntimeException("The function " + name + "/" + parameterTypes.size() + " is already defined in this scope.");
+        return defineFunction(new Environment.Function(name, jvmName, parameterTypes, returnType, function));
+    }
+
+    /**
+     * Defines an existing function in this scope, such as one which is shared
+     * with another scope.
+     */
+    public Environment.Function defineFunction(Environment.Function func) {
+        if (functions.containsKey(func.getName() + "/" + func.getParameterTypes().size())) {
+            throw new RuntimeException("The function " + func.getName() + "/" + func.getParameterTypes().size() + " is already defined in this scope.");
         } else {
-            Environment.Function func = new Environment.Function(name, jvmName, parameterTypes, returnType, function);
             functions.put(func.getName() + "/" + func.getParameterTypes().size(), func);
             return func;
         }
@@ -0,0 +1,150 @@
+package plc.project;
+
+import java.util.Arrays;
+
+/**
+ * Interns identifiers to dense integer ids as they are lexed, so each distinct
+ * name is only stored as a {@link String} once and later stages can compare
+ * names by id (or by reference) instead of by content.
+ *
+ * The keywords of the language are interned first by every table, so their
+ * ids are the same fixed constants everywhere. This lets the parser match
+ * keywords by id even on tokens which were not created by a lexer.
+ *
+ * A table is not thread-safe; each lexer owns its own unless one is passed in.
+ */
+public final class SymbolTable {
+
+    public static final int LET = 0;
+    public static final int CONST = 1;
+    public static final int DEF = 2;
+    public static final int DO = 3;
+    public static final int END = 4;
+    public static final int IF = 5;
+    public static final int ELSE = 6;
+    public static final int FOR = 7;
+    public static final int WHILE = 8;
+    public static final int RETURN = 9;
+    public static final int TRUE = 10;
+    public static final int FALSE = 11;
+    public static final int NIL = 12;
+    public static final int AND = 13;
+    public static final int OR = 14;
+
+    private static final String[] KEYWORDS = {
+            "LET", "CONST", "DEF", "DO", "END", "IF", "ELSE", "FOR", "WHILE",
+            "RETURN", "TRUE", "FALSE", "NIL", "AND", "OR"
+    };
+
+    private static final SymbolTable KEYWORD_TABLE = new SymbolTable();
+
+    private String[] names = new String[64];
+    private int[] hashes = new int[64];
+    private int[] slots = new int[128];
+    private int size = 0;
+
+    public SymbolTable() {
+        Arrays.fill(slots, -1);
+        for (String keyword : KEYWORDS) {
+            intern(keyword);
+        }
+    }
+
+    /**
+     * Returns the id of the keyword in the given range of characters, or
+     * {@code -1} if it is not a keyword.
+     */
+    public static int keyword(CharSequence chars, int start, int length) {
+        return KEYWORD_TABLE.find(chars, start, length);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public String getName(int id) {
+        if (id < 0 || id >= size) {
+            throw new IndexOutOfBoundsException("Unknown symbol " + id + ".");
+        }
+        return names[id];
+    }
+
+    public int intern(String name) {
+        return intern(name, 0, name.length());
+    }
+
+    /**
+     * Returns the id of the name in the given range of characters, adding it
+     * to the table if it isn't there already. The characters are only copied
+     * the first time a name is seen.
+     */
+    public int intern(CharSequence chars, int start, int length) {
+        int hash = hash(chars, start, length);
+        int slot = probe(chars, start, length, hash);
+        if (slots[slot] >= 0) {
+            return slots[slot];
+        }
+        if (size == names.length) {
+            names = Arrays.copyOf(names, size * 2);
+            hashes = Arrays.copyOf(hashes, size * 2);
+        }
+        names[size] = chars.subSequence(start, start + length).toString();
+        hashes[size] = hash;
+        slots[slot] = size;
+        if (++size * 2 > slots.length) {
+            rehash();
+        }
+        return size - 1;
+    }
+
+    /**
+     * Returns the id of the name in the given range of characters, or
+     * {@code -1} if it hasn't been interned.
+     */
+    public int find(CharSequence chars, int start, int length) {
+        return slots[probe(chars, start, length, hash(chars, start, length))];
+    }
+
+    private int probe(CharSequence chars, int start, int length, int hash) {
+        int mask = slots.length - 1;
+        int slot = hash & mask;
+        while (slots[slot] >= 0 && !(hashes[slots[slot]] == hash && equals(names[slots[slot]], chars, start, length))) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        Arrays.fill(slots, -1);
+        int mask = slots.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = hashes[id] & mask;
+            while (slots[slot] >= 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = id;
+        }
+    }
+
+    private static int hash(CharSequence chars, int start, int length) {
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + chars.charAt(start + i);
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean equals(String name, CharSequence chars, int start, int length) {
+        if (name.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (name.charAt(i) != chars.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
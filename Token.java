@@ -12,13 +12,47 @@ public final class Token {
     }
 
     private final Type type;
-    private final String literal;
+    private final CharSequence input;
+    private String literal;
     private final int index;
+    private final int length;
+    private final int symbol;
+    private String value;
 
     public Token(Type type, String literal, int index) {
+        this(type, null, literal, index, literal.length(), type == Type.IDENTIFIER ? SymbolTable.keyword(literal, 0, literal.length()) : -1, null);
+    }
+
+    /**
+     * Creates an identifier token which has been interned as the given symbol,
+     * where the literal is the name of the symbol in the {@link SymbolTable}.
+     */
+    public Token(Type type, int symbol, String literal, int index) {
+        this(type, null, literal, index, literal.length(), symbol, null);
+    }
+
+    /**
+     * Creates a token whose literal is the range {@code [index, index +
+     * length)} of the input. The literal isn't copied out of the input until
+     * {@link #getLiteral()} is first called.
+     */
+    public Token(Type type, CharSequence input, int index, int length) {
+        this(type, input, null, index, length, type == Type.IDENTIFIER ? SymbolTable.keyword(input, index, length) : -1, null);
+    }
+
+    /**
+     * Creates a token with every field given, where exactly one of the input
+     * or literal is non-null. This is used by the lexer to attach the decoded
+     * value of string and character literals.
+     */
+    Token(Type type, CharSequence input, String literal, int index, int length, int symbol, String value) {
         this.type = type;
+        this.input = input;
         this.literal = literal;
         this.index = index;
+        this.length = length;
+        this.symbol = symbol;
+        this.value = value;
     }
 
     public Type getType() {
@@ -26,24 +60,93 @@ public final class Token {
     }
 
     public String getLiteral() {
+        if (literal == null) {
+            literal = input.subSequence(index, index + length).toString();
+        }
         return literal;
     }
 
+    /**
+     * Returns the value of a {@link Type#STRING} or {@link Type#CHARACTER}
+     * token, which is its literal without the quotes and with escapes
+     * decoded. Tokens from the lexer have this decoded while they are lexed;
+     * for any others it is decoded (once) on the first call.
+     */
+    public String getValue() {
+        if (value == null) {
+            value = Lexer.decode(getLiteral());
+        }
+        return value;
+    }
+
+    /**
+     * Returns true if the literal of this token is equal to the given string,
+     * without materializing the literal if it hasn't been already.
+     */
+    public boolean hasLiteral(String literal) {
+        if (this.literal != null) {
+            return this.literal.equals(literal);
+        }
+        if (literal.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (input.charAt(index + i) != literal.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     public int getIndex() {
         return index;
     }
 
+    /**
+     * Returns a copy of this token at a different index, used when an edit
+     * before the token moves it without changing it. A token which is a view
+     * of its input stays a view, of the edited input the index is now
+     * relative to, so the literal still isn't copied out.
+     */
+    public Token withIndex(CharSequence input, int index) {
+        if (this.input == null) {
+            return new Token(type, null, literal, index, length, symbol, value);
+        }
+        return new Token(type, input, null, index, length, symbol, value);
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Returns the character of the literal at the given position, without
+     * materializing the literal.
+     */
+    public char charAt(int i) {
+        return literal != null ? literal.charAt(i) : input.charAt(index + i);
+    }
+
+    /**
+     * Returns the id of this token in the {@link SymbolTable} it was lexed
+     * with, or {@code -1} if it isn't an identifier. Identifier tokens created
+     * without a table only have an id if they are a keyword.
+     */
+    public int getSymbol() {
+        return symbol;
+    }
+
     @Override
     public boolean equals(Object obj) {
         return obj instanceof Token
                 && type == ((Token) obj).type
-                && literal.equals(((Token) obj).literal)
+                && getLiteral().equals(((Token) obj).getLiteral())
                 && index == ((Token) obj).index;
     }
 
     @Override
     public String toString() {
-        return type + "=" + literal + "@" + index;
+        return type + "=" + getLiteral() + "@" + index;
     }
 
 }
@@ -0,0 +1,106 @@
+package plc.project;
+
+import java.util.Arrays;
+
+/**
+ * A compact alternative to a {@code List<Token>}, storing the type, index,
+ * length and symbol of each token in parallel arrays with the literals left in
+ * the input (or, for identifiers, in the {@link SymbolTable}).
+ * {@link Token} objects are only created by {@link #get(int)}, which the parser
+ * uses when it needs one for error reporting.
+ */
+public final class TokenBuffer {
+
+    private static final Token.Type[] TYPES = Token.Type.values();
+
+    private final CharSequence input;
+    private final SymbolTable symbolTable;
+    private byte[] types;
+    private int[] indices;
+    private int[] lengths;
+    private int[] symbols;
+    private int size = 0;
+
+    public TokenBuffer(CharSequence input, SymbolTable symbolTable) {
+        this.input = input;
+        this.symbolTable = symbolTable;
+        int capacity = Math.max(16, input.length() / 4);
+        this.types = new byte[capacity];
+        this.indices = new int[capacity];
+        this.lengths = new int[capacity];
+        this.symbols = new int[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void add(Token.Type type, int index, int length, int symbol) {
+        if (size == types.length) {
+            int capacity = types.length * 2;
+            types = Arrays.copyOf(types, capacity);
+            indices = Arrays.copyOf(indices, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            symbols = Arrays.copyOf(symbols, capacity);
+        }
+        types[size] = (byte) type.ordinal();
+        indices[size] = index;
+        lengths[size] = length;
+        symbols[size] = symbol;
+        size++;
+    }
+
+    public Token.Type getType(int i) {
+        return TYPES[types[check(i)]];
+    }
+
+    public int getIndex(int i) {
+        return indices[check(i)];
+    }
+
+    public int getSymbol(int i) {
+        return symbols[check(i)];
+    }
+
+    public int getLength(int i) {
+        return lengths[check(i)];
+    }
+
+    /**
+     * Returns the character at position {@code j} of the literal of token
+     * {@code i}, read directly from the input.
+     */
+    public char charAt(int i, int j) {
+        return input.charAt(indices[check(i)] + j);
+    }
+
+    public String getLiteral(int i) {
+        if (symbols[check(i)] >= 0) {
+            return symbolTable.getName(symbols[i]);
+        }
+        return input.subSequence(indices[i], indices[i] + lengths[i]).toString();
+    }
+
+    /**
+     * Returns the decoded value of a string or character token, see {@link
+     * Token#getValue()}.
+     */
+    public String getValue(int i) {
+        return Lexer.decode(input.subSequence(indices[check(i)], indices[i] + lengths[i]));
+    }
+
+    public Token get(int i) {
+        if (symbols[check(i)] >= 0) {
+            return new Token(getType(i), symbols[i], symbolTable.getName(symbols[i]), indices[i]);
+        }
+        return new Token(getType(i), input, indices[i], lengths[i]);
+    }
+
+    private int check(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Index " + i + " out of bounds for length " + size);
+        }
+        return i;
+    }
+
+}
@@ -0,0 +1,75 @@
+package plc.project;
+
+import java.util.Random;
+
+/**
+ * Times {@link Lexer#lexBuffer()} on identifier-heavy input, for comparing
+ * the scalar run scanning in {@link Lexer.CharStream#advanceWhile} with the
+ * Vector API one. Each input is about 8MB of assignments between identifiers
+ * of one length, picked from a few hundred so that interning them in the
+ * symbol table doesn't hide the scanning. Build and run it with and without
+ * the vector scanner:
+ *
+ *     javac -d out *.java bench/*.java
+ *     java -cp out plc.project.LexerBenchmark
+ *
+ *     javac --add-modules jdk.incubator.vector -cp out -d out vector/*.java
+ *     java --add-modules jdk.incubator.vector -cp out plc.project.LexerBenchmark
+ *
+ * The arguments are the identifier lengths to time, by default 8, 16, 32,
+ * 128 and 512.
+ */
+public final class LexerBenchmark {
+
+    private static final int SIZE = 8_000_000;
+    private static final int IDENTIFIERS = 256;
+    private static final int RUNS = 15;
+
+    private LexerBenchmark() {}
+
+    public static void main(String[] args) {
+        int[] lengths = {8, 16, 32, 128, 512};
+        if (args.length > 0) {
+            lengths = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                lengths[i] = Integer.parseInt(args[i]);
+            }
+        }
+        System.out.println("run scanner: " + (Lexer.RunScanner.VECTOR == null ? "scalar" : "vector"));
+        for (int length : lengths) {
+            String input = generate(length, new Random(length));
+            long best = Long.MAX_VALUE;
+            int tokens = 0;
+            for (int run = 0; run < RUNS; run++) {
+                long start = System.nanoTime();
+                tokens = new Lexer(input).lexBuffer().size();
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            System.out.printf("identifiers of %d chars: %d tokens, best %.1f ms%n", length, tokens, best / 1e6);
+        }
+    }
+
+    /**
+     * Generates indented lines of {@code a = b = c = d;} with identifiers of
+     * the given length.
+     */
+    private static String generate(int length, Random random) {
+        String[] identifiers = new String[IDENTIFIERS];
+        for (int i = 0; i < identifiers.length; i++) {
+            StringBuilder identifier = new StringBuilder();
+            for (int j = 0; j < length; j++) {
+                identifier.append((char) ('a' + random.nextInt(26)));
+            }
+            identifiers[i] = identifier.toString();
+        }
+        StringBuilder builder = new StringBuilder();
+        while (builder.length() < SIZE) {
+            builder.append("        ");
+            for (int i = 0; i < 4; i++) {
+                builder.append(identifiers[random.nextInt(identifiers.length)]).append(i < 3 ? " = " : ";\n");
+            }
+        }
+        return builder.toString();
+    }
+
+}
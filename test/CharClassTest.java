@@ -0,0 +1,70 @@
+package plc.project;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Checks that each {@link Lexer.CharClass} matches exactly the characters the
+ * regex it replaced did, by comparing {@link Lexer#peek(Lexer.CharClass)} and
+ * {@link Lexer#match(Lexer.CharClass)} with the regex {@link
+ * Lexer#peek(String...)} and {@link Lexer#match(String...)} on every char.
+ * There's no test framework in this tree, so it's run directly and throws an
+ * {@link AssertionError} on the first difference:
+ *
+ *     javac -d out *.java test/*.java
+ *     java -cp out plc.project.CharClassTest
+ */
+public final class CharClassTest {
+
+    private static final Map<Lexer.CharClass, String> PATTERNS = new EnumMap<>(Lexer.CharClass.class);
+
+    static {
+        PATTERNS.put(Lexer.CharClass.WHITESPACE, "[\b]|\\r|\\n|\\t|\\s");
+        PATTERNS.put(Lexer.CharClass.IDENTIFIER_START, "[A-Za-z_]");
+        PATTERNS.put(Lexer.CharClass.IDENTIFIER_PART, "[A-Za-z0-9_-]");
+        PATTERNS.put(Lexer.CharClass.DIGIT, "[0-9]");
+        PATTERNS.put(Lexer.CharClass.NONZERO_DIGIT, "[1-9]");
+        PATTERNS.put(Lexer.CharClass.NON_DIGIT, "[^0-9]");
+        PATTERNS.put(Lexer.CharClass.ZERO, "0");
+        PATTERNS.put(Lexer.CharClass.SIGN, "[+-]");
+        PATTERNS.put(Lexer.CharClass.PERIOD, "\\.");
+        PATTERNS.put(Lexer.CharClass.EQUALS, "=");
+        PATTERNS.put(Lexer.CharClass.COMPARISON, "[<>!=]");
+        PATTERNS.put(Lexer.CharClass.SINGLE_QUOTE, "'");
+        PATTERNS.put(Lexer.CharClass.DOUBLE_QUOTE, "\\\"");
+        PATTERNS.put(Lexer.CharClass.BACKSLASH, "\\\\");
+        PATTERNS.put(Lexer.CharClass.ESCAPE, "[bnrt'\"\\\\]");
+        PATTERNS.put(Lexer.CharClass.LINE_BREAK, "[\\n\\r]");
+        PATTERNS.put(Lexer.CharClass.STRING_CHARACTER, "[^\"\n\r\\\\]");
+        PATTERNS.put(Lexer.CharClass.ANY, ".");
+    }
+
+    private CharClassTest() {}
+
+    public static void main(String[] args) {
+        for (Lexer.CharClass charClass : Lexer.CharClass.values()) {
+            String pattern = PATTERNS.get(charClass);
+            if (pattern == null) {
+                throw new AssertionError("No regex for " + charClass + ".");
+            }
+            for (int c = Character.MIN_VALUE; c <= Character.MAX_VALUE; c++) {
+                String input = String.valueOf((char) c);
+                boolean expected = new Lexer(input).peek(pattern);
+                if (new Lexer(input).peek(charClass) != expected) {
+                    throw new AssertionError(charClass + " and " + pattern + " differ on U+" + Integer.toHexString(c) + ".");
+                }
+                Lexer regex = new Lexer(input + "x");
+                Lexer table = new Lexer(input + "x");
+                if (regex.match(pattern) != table.match(charClass) || regex.peek("x") != table.peek("x")) {
+                    throw new AssertionError("match(" + charClass + ") and match(" + pattern + ") differ on U+" + Integer.toHexString(c) + ".");
+                }
+            }
+            // the end of the input never matches
+            if (new Lexer("").peek(charClass) || new Lexer("").match(charClass)) {
+                throw new AssertionError(charClass + " matches the end of the input.");
+            }
+        }
+        System.out.println("CharClass tables match their regexes on all " + (Character.MAX_VALUE + 1) + " chars.");
+    }
+
+}
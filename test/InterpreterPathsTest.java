@@ -0,0 +1,149 @@
+package plc.project;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+/**
+ * Checks that programs give the same output and result on both paths of the
+ * {@link Interpreter}: the scope path for an unanalyzed tree, and the frame
+ * path for an analyzed one (also after a round trip through {@link
+ * AstSnapshot}). There's no test framework in this tree, so it's run
+ * directly and throws an {@link AssertionError} on the first failure:
+ *
+ *     javac -d out *.java test/*.java
+ *     java -cp out plc.project.InterpreterPathsTest
+ */
+public final class InterpreterPathsTest {
+
+    private InterpreterPathsTest() {}
+
+    public static void main(String[] args) {
+        check("a declaration in a for body is new each iteration",
+                "LET n: Integer = 0;\n" +
+                "DEF main(): Integer DO\n" +
+                "    LET i = 0;\n" +
+                "    FOR (i = 0; i < 3; i = i + 1)\n" +
+                "        LET x = i * 2;\n" +
+                "        n = n + x;\n" +
+                "    END\n" +
+                "    RETURN n;\n" +
+                "END\n",
+                "", "6");
+        check("a for body can shadow a variable of the method",
+                "DEF main(): Integer DO\n" +
+                "    LET x = 10;\n" +
+                "    LET i = 0;\n" +
+                "    FOR (i = 0; i < 2; i = i + 1)\n" +
+                "        LET x = i;\n" +
+                "        print(x);\n" +
+                "    END\n" +
+                "    RETURN x;\n" +
+                "END\n",
+                "0\n1\n", "10");
+        check("a method sees the fields, not the caller's variables",
+                "LET x: Integer = 1;\n" +
+                "DEF f(): Integer DO\n" +
+                "    RETURN x;\n" +
+                "END\n" +
+                "DEF main(): Integer DO\n" +
+                "    LET x = 2;\n" +
+                "    RETURN f();\n" +
+                "END\n",
+                "", "1");
+        check("a method can be called twice from the same scope",
+                "DEF g(): Integer DO\n" +
+                "    RETURN 7;\n" +
+                "END\n" +
+                "DEF main(): Integer DO\n" +
+                "    LET a = g();\n" +
+                "    LET b = g();\n" +
+                "    RETURN a + b;\n" +
+                "END\n",
+                "", "14");
+        check("a declaration in a while body is new each iteration",
+                "DEF main(): Integer DO\n" +
+                "    LET i = 0;\n" +
+                "    WHILE i < 3 DO\n" +
+                "        i = i + 1;\n" +
+                "        print(i);\n" +
+                "        LET i = 5;\n" +
+                "    END\n" +
+                "    RETURN i;\n" +
+                "END\n",
+                "1\n2\n3\n", "3");
+        check("an else branch sees the variables outside the if, not the then branch's",
+                "DEF main(): Integer DO\n" +
+                "    LET x = 1;\n" +
+                "    IF x == 2 DO\n" +
+                "        LET x = 3;\n" +
+                "        print(x);\n" +
+                "    ELSE\n" +
+                "        print(x + 1);\n" +
+                "    END\n" +
+                "    RETURN x;\n" +
+                "END\n",
+                "2\n", "1");
+        rejects("an else branch can't use a variable of the then branch",
+                "DEF main(): Integer DO\n" +
+                "    IF TRUE DO\n" +
+                "        LET x = 1;\n" +
+                "    ELSE\n" +
+                "        print(x);\n" +
+                "    END\n" +
+                "    RETURN 0;\n" +
+                "END\n");
+        rejects("the branches of an if can't declare the same variable",
+                "DEF main(): Integer DO\n" +
+                "    IF TRUE DO\n" +
+                "        LET x = 1;\n" +
+                "    ELSE\n" +
+                "        LET x = 2;\n" +
+                "    END\n" +
+                "    RETURN 0;\n" +
+                "END\n");
+        System.out.println("Both interpreter paths agree.");
+    }
+
+    private static void check(String name, String source, String output, String result) {
+        Ast.Source plain = new Parser(new Lexer(source).lex()).parseSource();
+        Ast.Source analyzed = new Parser(new Lexer(source).lex()).parseSource();
+        new Analyzer(new Scope(null)).visit(analyzed);
+        Ast.Source loaded = AstSnapshot.read(AstSnapshot.write(analyzed));
+        String expected = output + "=" + result;
+        String[] paths = {"scope", "frame", "snapshot"};
+        Ast.Source[] sources = {plain, analyzed, loaded};
+        for (int i = 0; i < paths.length; i++) {
+            String actual = run(sources[i]);
+            if (!actual.equals(expected)) {
+                throw new AssertionError(name + ": the " + paths[i] + " path gave " + actual + " instead of " + expected + ".");
+            }
+        }
+    }
+
+    private static void rejects(String name, String source) {
+        Ast.Source ast = new Parser(new Lexer(source).lex()).parseSource();
+        try {
+            new Analyzer(new Scope(null)).visit(ast);
+        } catch (RuntimeException e) {
+            return;
+        }
+        throw new AssertionError(name + ": the analyzer accepted it.");
+    }
+
+    /**
+     * Runs the source, returning what it printed and the result of main
+     * separated by {@code =}.
+     */
+    private static String run(Ast.Source source) {
+        PrintStream out = System.out;
+        ByteArrayOutputStream printed = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(printed, true));
+        try {
+            Object result = new Interpreter(new Scope(null)).visit(source).getValue();
+            return printed.toString().replace(System.lineSeparator(), "\n") + "=" + result;
+        } finally {
+            System.setOut(out);
+        }
+    }
+
+}
@@ -0,0 +1,127 @@
+package plc.project;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * Checks that folding doesn't change what a program does. Each program is run
+ * unfolded (unanalyzed, so {@link Optimizer#optimize(Ast.Source)} leaves it
+ * alone) and folded (analyzed, so the interpreter optimizes it first), and
+ * both have to print the same output and return the same result. There's no
+ * test framework in this tree, so it's run directly and throws an {@link
+ * AssertionError} on the first failure:
+ *
+ *     javac -d out *.java test/*.java
+ *     java -cp out plc.project.OptimizerTest
+ */
+public final class OptimizerTest {
+
+    private OptimizerTest() {}
+
+    public static void main(String[] args) {
+        check("literal arithmetic and constant fields",
+                "LET CONST k: Integer = 3;\n" +
+                "LET g: Integer = 1;\n" +
+                "DEF main(): Integer DO\n" +
+                "    print(\"k is \" + k);\n" +
+                "    print(k * 2 + 1 == 7);\n" +
+                "    RETURN k * (2 + 4) - g;\n" +
+                "END\n",
+                "k is 3\ntrue\n", "17");
+        check("a constant if keeps the branch which runs",
+                "LET CONST debug: Boolean = FALSE;\n" +
+                "DEF main(): Integer DO\n" +
+                "    LET x = 1;\n" +
+                "    IF debug DO\n" +
+                "        print(\"debug\");\n" +
+                "    ELSE\n" +
+                "        x = x + 10;\n" +
+                "        IF 1 < 2 DO\n" +
+                "            LET y = x * 2;\n" +
+                "            print(y);\n" +
+                "        END\n" +
+                "    END\n" +
+                "    RETURN x;\n" +
+                "END\n",
+                "22\n", "11");
+        check("folding inside loops",
+                "LET CONST n: Integer = 2 + 1;\n" +
+                "DEF main(): Integer DO\n" +
+                "    LET i = 0;\n" +
+                "    LET total = 0;\n" +
+                "    WHILE i < n DO\n" +
+                "        total = total + (10 - 2 * 3);\n" +
+                "        i = i + 1;\n" +
+                "    END\n" +
+                "    RETURN total;\n" +
+                "END\n",
+                "", "12");
+        check("what fails at runtime still fails there",
+                "DEF f(): Integer DO\n" +
+                "    RETURN 1 / 0;\n" +
+                "END\n" +
+                "DEF main(): Integer DO\n" +
+                "    print(f());\n" +
+                "    print(2147483647 + 1);\n" +
+                "    RETURN 1 - 1;\n" +
+                "END\n",
+                "nil\n2147483648\n", "0");
+        String java = generate("LET CONST k: Integer = 3;\n" +
+                "DEF main(): Integer DO\n" +
+                "    RETURN k * 2 + 1;\n" +
+                "END\n");
+        if (!java.contains("return 7;")) {
+            throw new AssertionError("The generator didn't fold k * 2 + 1:\n" + java);
+        }
+        System.out.println("Folded and unfolded programs agree.");
+    }
+
+    private static void check(String name, String source, String output, String result) {
+        Ast.Source unfolded = new Parser(new Lexer(source).lex()).parseSource();
+        Ast.Source analyzed = new Parser(new Lexer(source).lex()).parseSource();
+        new Analyzer(new Scope(null)).visit(analyzed);
+        if (Optimizer.optimize(unfolded) != unfolded) {
+            throw new AssertionError(name + ": an unanalyzed source was optimized.");
+        } else if (Optimizer.optimize(analyzed).equals(analyzed)) {
+            throw new AssertionError(name + ": nothing was folded.");
+        }
+        String expected = output + "=" + result;
+        String actual = run(unfolded);
+        if (!actual.equals(expected)) {
+            throw new AssertionError(name + ": the unfolded program gave " + actual + " instead of " + expected + ".");
+        }
+        actual = run(analyzed);
+        if (!actual.equals(expected)) {
+            throw new AssertionError(name + ": the folded program gave " + actual + " instead of " + expected + ".");
+        }
+    }
+
+    /**
+     * Runs the source, returning what it printed and the result of main
+     * separated by {@code =}.
+     */
+    private static String run(Ast.Source source) {
+        PrintStream out = System.out;
+        ByteArrayOutputStream printed = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(printed, true));
+        try {
+            Object result = new Interpreter(new Scope(null)).visit(source).getValue();
+            return printed.toString().replace(System.lineSeparator(), "\n") + "=" + result;
+        } finally {
+            System.setOut(out);
+        }
+    }
+
+    private static String generate(String source) {
+        Ast.Source ast = new Parser(new Lexer(source).lex()).parseSource();
+        new Analyzer(new Scope(null)).visit(ast);
+        StringWriter java = new StringWriter();
+        PrintWriter writer = new PrintWriter(java);
+        new Generator(writer).visit(ast);
+        writer.flush();
+        return java.toString();
+    }
+
+}
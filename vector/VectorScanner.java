@@ -0,0 +1,84 @@
+package plc.project;
+
+import java.util.Arrays;
+
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Scans runs of characters with the (incubating) Vector API, comparing as
+ * many characters per step as the platform's preferred vector has lanes (16
+ * to 64 on x86 and ARM). Each {@link Lexer.CharClass} is turned into the
+ * ranges of ASCII characters it contains, and a lane matches if it's in any
+ * of the ranges. Characters outside of ASCII never match here and are left to
+ * the scalar loop in {@link Lexer.CharStream}.
+ *
+ * This class needs {@code --add-modules jdk.incubator.vector} to compile and
+ * run, so it's kept out of the main sources and built on top of them:
+ *
+ *     javac -d out *.java
+ *     javac --add-modules jdk.incubator.vector -cp out -d out vector/*.java
+ *
+ * The lexer loads it by name through {@code Lexer.RunScanner.load()}, and
+ * uses its scalar loop if the class or the module isn't available.
+ */
+final class VectorScanner implements Lexer.RunScanner {
+
+    private static final VectorSpecies<Short> SPECIES = ShortVector.SPECIES_PREFERRED;
+
+    /**
+     * The bounds of the ranges of each class by ordinal, as pairs of the
+     * first and last character of a range.
+     */
+    private final short[][] ranges = new short[Lexer.CharClass.values().length][];
+
+    VectorScanner() {
+        for (Lexer.CharClass charClass : Lexer.CharClass.values()) {
+            short[] bounds = new short[128];
+            int count = 0;
+            for (char c = 0; c < 128; c++) {
+                if (charClass.test(c) && (c == 0 || !charClass.test((char) (c - 1)))) {
+                    bounds[count++] = (short) c;
+                }
+                if (charClass.test(c) && (c == 127 || !charClass.test((char) (c + 1)))) {
+                    bounds[count++] = (short) c;
+                }
+            }
+            // a class without ASCII characters gets an empty range
+            ranges[charClass.ordinal()] = count == 0 ? new short[] {1, 0} : Arrays.copyOf(bounds, count);
+        }
+    }
+
+    @Override
+    public int scan(short[] chars, int from, int to, Lexer.CharClass charClass) {
+        short[] bounds = ranges[charClass.ordinal()];
+        int i = from;
+        for (; i + SPECIES.length() <= to; i += SPECIES.length()) {
+            VectorMask<Short> miss = matches(ShortVector.fromArray(SPECIES, chars, i), bounds).not();
+            if (miss.anyTrue()) {
+                return i + miss.firstTrue();
+            }
+        }
+        if (i < to) {
+            VectorMask<Short> range = SPECIES.indexInRange(i, to);
+            VectorMask<Short> miss = matches(ShortVector.fromArray(SPECIES, chars, i, range), bounds).not().and(range);
+            return miss.anyTrue() ? i + miss.firstTrue() : to;
+        }
+        return to;
+    }
+
+    /**
+     * Returns the lanes within any of the ranges. Lanes are signed, so
+     * characters from 0x8000 up are negative and can't be in a range.
+     */
+    private static VectorMask<Short> matches(ShortVector vector, short[] bounds) {
+        VectorMask<Short> mask = vector.compare(VectorOperators.GE, bounds[0]).and(vector.compare(VectorOperators.LE, bounds[1]));
+        for (int j = 2; j < bounds.length; j += 2) {
+            mask = mask.or(vector.compare(VectorOperators.GE, bounds[j]).and(vector.compare(VectorOperators.LE, bounds[j + 1])));
+        }
+        return mask;
+    }
+
+}